@@ -168,11 +168,20 @@ public class GenerateAstFiles {
 
         if (classConfig.getFields() != null) {
             for (FieldConfig fieldConfig : classConfig.getFields()) {
-                builder.append("\tpublic final ")
-                        .append(fieldConfig.getType())
+                builder.append("\tpublic ");
+
+                // Mutable fields are filled in after parsing, so they stay out of the constructor
+                if (!fieldConfig.isMutable())
+                    builder.append("final ");
+
+                builder.append(fieldConfig.getType())
                         .append(" ")
-                        .append(fieldConfig.getName())
-                        .append(";\n");
+                        .append(fieldConfig.getName());
+
+                if (fieldConfig.getDefaultValue() != null)
+                    builder.append(" = ").append(fieldConfig.getDefaultValue());
+
+                builder.append(";\n");
             }
         }
 
@@ -337,6 +346,13 @@ public class GenerateAstFiles {
     private static String getPackageName(String className) {
         if (className.equals("List")) return "java.util";
 
+        // AST classes may not have been written yet, so they're looked up in the config
+        for (ClassConfig classConfig : config.getExpressions())
+            if (classConfig.getName().equals(className)) return config.getPackage() + ".expression";
+
+        for (ClassConfig classConfig : config.getStatements())
+            if (classConfig.getName().equals(className)) return config.getPackage() + ".statement";
+
         File baseDirectory = Paths.get(baseDirectoryPath.split("java")[0] + "java").toFile();
         Optional<String> packageName = findPackage(baseDirectory, className, baseDirectory.toPath());
         return packageName.orElse(null);
@@ -67,7 +67,7 @@ public class Config {
 
         List<MethodConfig> methods = List.of(createAcceptMethod());
 
-        return new ClassConfig(name, null, true, null, methods);
+        return new ClassConfig(name, null, true, convertFieldConfigs(classData), methods);
     }
 
     private ClassConfig loadBaseStatement(Map<String, Object> classData) {
@@ -77,7 +77,7 @@ public class Config {
 
         List<MethodConfig> methods = List.of(createAcceptMethod());
 
-        return new ClassConfig(name, null, true, null, methods);
+        return new ClassConfig(name, null, true, convertFieldConfigs(classData), methods);
     }
 
     private MethodConfig createAcceptMethod() {
@@ -91,14 +91,7 @@ public class Config {
         String name = (String) classData.get("name");
         String parentClass = (String) classData.get("parentClass");
         boolean isAbstract = (boolean) classData.getOrDefault("isAbstract", false);
-
-        List<Map<String, Object>> fieldsData = (List<Map<String, Object>>) classData.get("fields");
-        List<FieldConfig> fields = null;
-        if (fieldsData != null) {
-            fields = fieldsData.stream()
-                    .map(Config::convertFieldConfig)
-                    .toList();
-        }
+        List<FieldConfig> fields = convertFieldConfigs(classData);
 
         List<Map<String, Object>> methodData = (List<Map<String, Object>>) classData.get("methods");
         List<MethodConfig> methods = null;
@@ -111,10 +104,26 @@ public class Config {
         return new ClassConfig(name, parentClass, isAbstract, fields, methods);
     }
 
+    @SuppressWarnings("unchecked")
+    private static List<FieldConfig> convertFieldConfigs(Map<String, Object> classData) {
+        List<Map<String, Object>> fieldsData = (List<Map<String, Object>>) classData.get("fields");
+        if (fieldsData == null)
+            return null;
+
+        return fieldsData.stream()
+                .map(Config::convertFieldConfig)
+                .toList();
+    }
+
     private static FieldConfig convertFieldConfig(Map<String, Object> fieldData) {
         String name = (String) fieldData.get("name");
         String type = (String) fieldData.get("type");
-        return new FieldConfig(type, name);
+        boolean isMutable = (boolean) fieldData.getOrDefault("isMutable", false);
+
+        Object defaultValueData = fieldData.get("defaultValue");
+        String defaultValue = defaultValueData != null ? defaultValueData.toString() : null;
+
+        return new FieldConfig(type, name, isMutable, defaultValue);
     }
 
     @SuppressWarnings("unchecked")
@@ -6,4 +6,6 @@ import lombok.Value;
 public class FieldConfig {
     String type;
     String name;
+    boolean isMutable;
+    String defaultValue;
 }
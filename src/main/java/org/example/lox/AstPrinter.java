@@ -156,6 +156,36 @@ public class AstPrinter implements Visitor<String> {
         return "";
     }
 
+    @Override
+    public String visitInvariantExpression(InvariantExpression invariantExpression) {
+        StringBuilder result = new StringBuilder();
+
+        result.append("InvariantExpression\n")
+                .append(indent);
+
+        incrementIndent(false);
+        result.append("╰─▶")
+                .append(invariantExpression.expression.accept(this));
+        decrementIndent();
+
+        return result.toString();
+    }
+
+    @Override
+    public String visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        StringBuilder result = new StringBuilder();
+
+        result.append("InlinedCallExpression\n")
+                .append(indent);
+
+        incrementIndent(false);
+        result.append("╰─▶")
+                .append(inlinedCallExpression.call.accept(this));
+        decrementIndent();
+
+        return result.toString();
+    }
+
     @Override
     public String visitExpressionStatement(ExpressionStatement expressionStatement) {
         StringBuilder result = new StringBuilder();
@@ -0,0 +1,48 @@
+package org.example.lox;
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class BoundMethod implements LoxCallable {
+    private final LoxFunction method;
+    private final LoxInstance receiver;
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return method.invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return method.invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return method.invoke1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return method.invoke2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return method.invoke3(interpreter, receiver, a, b, c);
+    }
+
+    public Completion tailCall(Interpreter interpreter, Object[] arguments) {
+        return interpreter.tailCall(method, receiver, arguments);
+    }
+
+    @Override
+    public int arity() {
+        return method.arity();
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
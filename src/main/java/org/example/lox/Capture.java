@@ -0,0 +1,12 @@
+package org.example.lox;
+
+import lombok.RequiredArgsConstructor;
+
+// Where a function finds one of its free variables when it is created, relative to the
+// Environment it is created in. The value, or the Cell of a shared variable, is copied into
+// the function's closure at the capture's index
+@RequiredArgsConstructor
+public class Capture {
+    public final int depth;
+    public final int slot;
+}
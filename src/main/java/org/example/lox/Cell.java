@@ -0,0 +1,11 @@
+package org.example.lox;
+
+// Holds a local that closures capture and something assigns, or that a closure captures before it
+// is initialized. The slot and every closure hold the same Cell, so they all see the assignments
+public class Cell {
+    public Object value;
+
+    public Cell(Object value) {
+        this.value = value;
+    }
+}
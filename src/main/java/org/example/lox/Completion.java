@@ -0,0 +1,9 @@
+package org.example.lox;
+
+// How a statement finished when it did not simply fall through; normal completion is null.
+// A RETURN leaves its value with the Interpreter (see returnWith)
+public enum Completion {
+    BREAK,
+    CONTINUE,
+    RETURN
+}
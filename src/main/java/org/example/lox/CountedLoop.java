@@ -0,0 +1,41 @@
+package org.example.lox;
+
+import lombok.RequiredArgsConstructor;
+import org.example.lox.ast.expression.Expression;
+import org.example.lox.exception.RuntimeError;
+
+// Attached by the LoopOptimizer to a desugared 'for (var i = a; i < b; i = i + c)' whose body never
+// assigns i. The backends keep i in a double and only store it into its slot for the body to read
+@RequiredArgsConstructor
+public class CountedLoop {
+    // Slot of the induction variable in the Environment the loop runs in
+    public final int slot;
+    public final Token operator;
+    public final Expression limit;
+    // An invariant limit is evaluated once when the loop starts instead of on every iteration
+    public final boolean invariantLimit;
+    public final double step;
+    // Slots holding the body's InvariantExpressions. They are cleared on entry, the loop may run
+    // again in the same Environment, as the body of an enclosing loop
+    public final int firstInvariantSlot;
+    public final int invariantSlotCount;
+
+    public void clearInvariants(Environment environment) {
+        for (int i = 0; i < invariantSlotCount; i++)
+            environment.assign(firstInvariantSlot + i, null);
+    }
+
+    public double limit(Object value) {
+        if (value instanceof Double number) return number;
+        throw new RuntimeError(operator, "Operands must be numbers");
+    }
+
+    public boolean test(double index, double limit) {
+        return switch (operator.type) {
+            case LESS -> index < limit;
+            case LESS_EQUAL -> index <= limit;
+            case GREATER -> index > limit;
+            default -> index >= limit;
+        };
+    }
+}
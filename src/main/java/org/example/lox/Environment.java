@@ -1,28 +1,44 @@
 package org.example.lox;
 
-import lombok.RequiredArgsConstructor;
-import org.example.lox.exception.RuntimeError;
+import java.util.List;
 
-import java.util.HashMap;
-import java.util.Map;
-
-@RequiredArgsConstructor
 public class Environment {
+    // Marks a slot holding a number unboxed, in 'numbers'
+    private static final Object UNBOXED = new Object();
+
     public final Environment parent;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Object[] values;
+    // Allocated by the first unboxed store
+    private double[] numbers;
+
+    public Environment(Environment parent, int size) {
+        this.parent = parent;
+        this.values = new Object[size];
+    }
 
-    public Object get(Token token) {
-        if (values.containsKey(token.lexeme))
-            return values.get(token.lexeme);
+    public Object get(int slot) {
+        Object value = values[slot];
+        return value == UNBOXED ? (Double) numbers[slot] : value;
+    }
+
+    public Object getAt(int distance, int slot) {
+        return ancestor(distance).get(slot);
+    }
 
-        if (parent != null)
-            return parent.get(token);
+    public boolean isUnboxed(int slot) {
+        return values[slot] == UNBOXED;
+    }
 
-        throw new RuntimeError(token, "Undefined variable '" + token.lexeme + "'");
+    public double getUnboxed(int slot) {
+        return numbers[slot];
     }
 
-    public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    public void defineUnboxed(int slot, double value) {
+        if (numbers == null)
+            numbers = new double[values.length];
+
+        values[slot] = UNBOXED;
+        numbers[slot] = value;
     }
 
     private Environment ancestor(int distance) {
@@ -34,25 +50,30 @@ public class Environment {
         return environment;
     }
 
-    public void define(String name, Object value) {
-        values.put(name, value);
+    public void define(int slot, Object value) {
+        values[slot] = value;
     }
 
-    public void assign(Token token, Object value) {
-        if (values.containsKey(token.lexeme)) {
-            values.put(token.lexeme, value);
-            return;
-        }
-
-        if (parent != null) {
-            parent.assign(token, value);
-            return;
-        }
+    public void assign(int slot, Object value) {
+        values[slot] = value;
+    }
 
-        throw new RuntimeError(token, "Undefined variable '" + token.lexeme + "'");
+    public void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).values[slot] = value;
     }
 
-    public void assignAt(int distance, Token token, Object value) {
-        ancestor(distance).values.put(token.lexeme, value);
+    // Builds the closure of a function created here, holding just the variables it uses.
+    // It becomes the parent of the function's frames
+    public Environment capture(List<Capture> captures) {
+        if (captures.isEmpty())
+            return null;
+
+        Environment closure = new Environment(null, captures.size());
+        for (int i = 0; i < captures.size(); i++) {
+            Capture capture = captures.get(i);
+            closure.values[i] = getAt(capture.depth, capture.slot);
+        }
+
+        return closure;
     }
 }
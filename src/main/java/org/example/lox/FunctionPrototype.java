@@ -0,0 +1,58 @@
+package org.example.lox;
+
+import lombok.RequiredArgsConstructor;
+import org.example.lox.ast.expression.LambdaExpression;
+import org.example.lox.ast.statement.FunctionStatement;
+import org.example.lox.ast.statement.Statement;
+
+import java.util.List;
+
+// What every function made from one declaration or lambda shares: its frame layout and its body.
+// Built once per node, after the optimizations are done changing the layout, so making a function
+// only allocates the closure. The lists are the node's own, which nothing changes from then on
+@RequiredArgsConstructor
+public final class FunctionPrototype {
+    public final String name;
+    public final List<Token> parameters;
+    public final List<Statement> body;
+    public final int slotCount;
+    public final List<Capture> captures;
+    public final List<Integer> sharedParameters;
+    // Set in the JIT tier, see Interpreter.function. Every closure made from the declaration
+    // counts towards the one profile and runs the code compiled from it
+    JitProfile profile;
+
+    public static FunctionPrototype of(FunctionStatement functionStatement) {
+        if (functionStatement.prototype == null) {
+            functionStatement.prototype = new FunctionPrototype(
+                    functionStatement.token.lexeme,
+                    functionStatement.parameters,
+                    functionStatement.body,
+                    functionStatement.slotCount,
+                    functionStatement.captures,
+                    functionStatement.sharedParameters
+            );
+        }
+
+        return functionStatement.prototype;
+    }
+
+    public static FunctionPrototype of(LambdaExpression lambdaExpression) {
+        if (lambdaExpression.prototype == null) {
+            lambdaExpression.prototype = new FunctionPrototype(
+                    "lambda",
+                    lambdaExpression.parameters,
+                    lambdaExpression.body,
+                    lambdaExpression.slotCount,
+                    lambdaExpression.captures,
+                    lambdaExpression.sharedParameters
+            );
+        }
+
+        return lambdaExpression.prototype;
+    }
+
+    public int arity() {
+        return parameters.size();
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.lox;
+
+import org.example.lox.exception.RuntimeError;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Every global name gets an index the first time the Resolver sees it, declared or not, so reads
+// and assignments index an array. A name used before anything defines it holds UNDEFINED until then.
+// Globals have no slots, so this is not an Environment; the top level runs in an empty frame of its own
+public class GlobalEnvironment {
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    private Object[] values = new Object[16];
+
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index != null)
+            return index;
+
+        index = indices.size();
+        if (index == values.length)
+            values = Arrays.copyOf(values, values.length * 2);
+
+        values[index] = UNDEFINED;
+        indices.put(name, index);
+        return index;
+    }
+
+    public Object get(int index, Token token) {
+        Object value = values[index];
+        if (value == UNDEFINED)
+            throw new RuntimeError(token, "Undefined variable '" + token.lexeme + "'");
+
+        return value;
+    }
+
+    public void define(String name, Object value) {
+        values[indexOf(name)] = value;
+    }
+
+    public void assign(int index, Token token, Object value) {
+        if (values[index] == UNDEFINED)
+            throw new RuntimeError(token, "Undefined variable '" + token.lexeme + "'");
+
+        values[index] = value;
+    }
+}
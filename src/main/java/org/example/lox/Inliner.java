@@ -0,0 +1,420 @@
+package org.example.lox;
+
+import org.example.lox.ast.Visitor;
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+
+import java.io.PrintStream;
+import java.util.*;
+
+// Runs after the Optimizer and replaces calls whose callee is known before the program runs: a
+// global function declared once and never assigned, or a method no other class declares. The
+// original call stays in the node, since the callee is still looked up when the call runs and the
+// inlined body is only used while it is the declaration that was inlined (see InlinedCallExpression).
+// A body that is a single return becomes an expression evaluated in the caller's frame, with the
+// receiver and arguments in extra slots there; any other body runs in a frame of its own
+public class Inliner extends Optimizer {
+    public static final int DEFAULT_SIZE_LIMIT = 24;
+
+    private final int sizeLimit;
+    private final List<String> report = new ArrayList<>();
+
+    // Filled in by a first pass over the whole program
+    private boolean surveying;
+    private final Map<String, Integer> globalDeclarations = new HashMap<>();
+    private final Set<String> assignedGlobals = new HashSet<>();
+    private final Map<String, FunctionStatement> functions = new HashMap<>();
+    private final Map<String, List<FunctionStatement>> methods = new HashMap<>();
+
+    // A function is never inlined into its own body
+    private final Deque<FunctionStatement> enclosingFunctions = new ArrayDeque<>();
+
+    public Inliner(int sizeLimit) {
+        this.sizeLimit = sizeLimit;
+    }
+
+    @Override
+    public void optimize(List<Statement> statements) {
+        surveying = true;
+        super.optimize(statements);
+        surveying = false;
+        super.optimize(statements);
+    }
+
+    public void printReport(PrintStream out) {
+        out.println("Inlined calls: " + report.size());
+        for (String line : report)
+            out.println("  " + line);
+    }
+
+    @Override
+    public Object visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+        if (surveying && assignmentExpression.depth == -1)
+            assignedGlobals.add(assignmentExpression.token.lexeme);
+
+        return super.visitAssignmentExpression(assignmentExpression);
+    }
+
+    @Override
+    public Object visitCallExpression(CallExpression callExpression) {
+        CallExpression call = (CallExpression) super.visitCallExpression(callExpression);
+        if (surveying) return call;
+
+        boolean isMethod = call.callee instanceof GetExpression;
+        FunctionStatement function = isMethod
+                ? knownMethod((GetExpression) call.callee)
+                : knownFunction(call.callee);
+
+        if (function == null || function.parameters.size() != call.arguments.size()) return call;
+        if (enclosingFunctions.contains(function)) return call;
+
+        BodyScanner scanner = new BodyScanner(sizeLimit);
+        if (!scanner.accepts(function.body)) return call;
+
+        String name = (isMethod ? "method " : "function ") + function.token.lexeme;
+        Expression body = returnedExpression(function);
+
+        if (body == null || currentFrame() == null) {
+            report.add("[line " + call.rightParenthesis.line + "] " + name + ", " + scanner.size + " nodes, block");
+            return new InlinedCallExpression(call, function, null);
+        }
+
+        int slot = allocateSlots(currentFrame(), function.parameters.size() + (isMethod ? 1 : 0));
+        report.add("[line " + call.rightParenthesis.line + "] " + name + ", " + scanner.size + " nodes, expression");
+
+        InlinedCallExpression result = new InlinedCallExpression(call, function, copy(body, slot));
+        result.slot = slot;
+        return result;
+    }
+
+    @Override
+    public Object visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        return inlinedCallExpression;
+    }
+
+    @Override
+    public Object visitVariableStatement(VariableStatement variableStatement) {
+        if (surveying && variableStatement.slot == -1)
+            declareGlobal(variableStatement.token);
+
+        return super.visitVariableStatement(variableStatement);
+    }
+
+    @Override
+    public Object visitFunctionStatement(FunctionStatement functionStatement) {
+        if (surveying && functionStatement.slot == -1) {
+            declareGlobal(functionStatement.token);
+            functions.put(functionStatement.token.lexeme, functionStatement);
+        }
+
+        return super.visitFunctionStatement(functionStatement);
+    }
+
+    @Override
+    public Object visitClassStatement(ClassStatement classStatement) {
+        if (surveying) {
+            if (classStatement.slot == -1)
+                declareGlobal(classStatement.name);
+
+            for (FunctionStatement method : classStatement.methods)
+                methods.computeIfAbsent(method.token.lexeme, name -> new ArrayList<>()).add(method);
+        }
+
+        return super.visitClassStatement(classStatement);
+    }
+
+    @Override
+    protected void optimizeFunction(FunctionStatement functionStatement) {
+        enclosingFunctions.push(functionStatement);
+        try {
+            super.optimizeFunction(functionStatement);
+        } finally {
+            enclosingFunctions.pop();
+        }
+    }
+
+    private void declareGlobal(Token name) {
+        globalDeclarations.merge(name.lexeme, 1, Integer::sum);
+    }
+
+    private FunctionStatement knownFunction(Expression callee) {
+        if (!(callee instanceof VariableExpression variable) || variable.depth != -1)
+            return null;
+
+        String name = variable.token.lexeme;
+        if (globalDeclarations.getOrDefault(name, 0) != 1 || assignedGlobals.contains(name))
+            return null;
+
+        return functions.get(name);
+    }
+
+    // A method some other class declares too, or a subclass overrides, is left alone
+    private FunctionStatement knownMethod(GetExpression callee) {
+        String name = callee.name.lexeme;
+        List<FunctionStatement> candidates = methods.get(name);
+        if (name.equals("init") || candidates == null || candidates.size() != 1)
+            return null;
+
+        return candidates.get(0);
+    }
+
+    private static Expression returnedExpression(FunctionStatement function) {
+        if (function.body.isEmpty())
+            return new LiteralExpression(null, TokenType.NIL);
+
+        if (function.body.size() == 1 && function.body.get(0) instanceof ReturnStatement returnStatement) {
+            return returnStatement.value != null
+                    ? returnStatement.value
+                    : new LiteralExpression(null, TokenType.NIL);
+        }
+
+        return null;
+    }
+
+    // Moves the callee's frame, 'this' and the parameters, into the caller's slots from base on.
+    // Only handles what the BodyScanner lets through for a single returned expression
+    private static Expression copy(Expression expression, int base) {
+        if (expression instanceof LiteralExpression)
+            return expression;
+
+        if (expression instanceof GroupingExpression grouping)
+            return copy(grouping.expression, base);
+
+        if (expression instanceof VariableExpression variable) {
+            if (variable.depth == -1) return variable;
+
+            VariableExpression result = new VariableExpression(variable.token);
+            result.depth = 0;
+            result.slot = base + variable.slot;
+            return result;
+        }
+
+        if (expression instanceof AssignmentExpression assignment) {
+            AssignmentExpression result = new AssignmentExpression(assignment.token, copy(assignment.expression, base));
+            result.depth = assignment.depth;
+            result.slot = assignment.depth == -1 ? assignment.slot : base + assignment.slot;
+            return result;
+        }
+
+        if (expression instanceof ThisExpression thisExpression) {
+            ThisExpression result = new ThisExpression(thisExpression.keyword);
+            result.depth = 0;
+            result.slot = base + thisExpression.slot;
+            return result;
+        }
+
+        if (expression instanceof UnaryExpression unary)
+            return new UnaryExpression(unary.operator, copy(unary.right, base));
+
+        if (expression instanceof BinaryExpression binary)
+            return new BinaryExpression(copy(binary.left, base), binary.operator, copy(binary.right, base));
+
+        if (expression instanceof LogicalExpression logical)
+            return new LogicalExpression(copy(logical.left, base), logical.operator, copy(logical.right, base));
+
+        if (expression instanceof CallExpression call) {
+            List<Expression> arguments = new ArrayList<>(call.arguments.size());
+            for (Expression argument : call.arguments)
+                arguments.add(copy(argument, base));
+
+            return new CallExpression(copy(call.callee, base), call.rightParenthesis, arguments);
+        }
+
+        if (expression instanceof GetExpression get) {
+            GetExpression result = new GetExpression(copy(get.object, base), get.name);
+            result.cache = new PropertyCache(get.name);
+            return result;
+        }
+
+        SetExpression set = (SetExpression) expression;
+        SetExpression result = new SetExpression(copy(set.object, base), set.name, copy(set.value, base));
+        result.cache = new PropertyCache(set.name);
+        return result;
+    }
+
+    // Measures a callee's body and checks it only reaches into its own frame and the globals.
+    // Anything that would capture the frame, or reach past it, keeps the function out of line
+    private static class BodyScanner implements Visitor<Boolean> {
+        private final int limit;
+        private int size = 0;
+        private int depth = 0;
+
+        BodyScanner(int limit) {
+            this.limit = limit;
+        }
+
+        boolean accepts(List<Statement> statements) {
+            for (Statement statement : statements) {
+                if (!statement.accept(this)) return false;
+            }
+
+            return true;
+        }
+
+        private boolean count() {
+            return ++size <= limit;
+        }
+
+        private boolean inFrame(int depth) {
+            return depth <= this.depth;
+        }
+
+        private boolean accepts(Expression expression) {
+            return expression == null || expression.accept(this);
+        }
+
+        private boolean accepts(Statement statement) {
+            return statement == null || statement.accept(this);
+        }
+
+        @Override
+        public Boolean visitUnaryExpression(UnaryExpression unaryExpression) {
+            return count() && accepts(unaryExpression.right);
+        }
+
+        @Override
+        public Boolean visitBinaryExpression(BinaryExpression binaryExpression) {
+            return count() && accepts(binaryExpression.left) && accepts(binaryExpression.right);
+        }
+
+        @Override
+        public Boolean visitGroupingExpression(GroupingExpression groupingExpression) {
+            return accepts(groupingExpression.expression);
+        }
+
+        @Override
+        public Boolean visitLiteralExpression(LiteralExpression literalExpression) {
+            return count();
+        }
+
+        @Override
+        public Boolean visitVariableExpression(VariableExpression variableExpression) {
+            return count() && inFrame(variableExpression.depth);
+        }
+
+        @Override
+        public Boolean visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+            return count() && inFrame(assignmentExpression.depth) && accepts(assignmentExpression.expression);
+        }
+
+        @Override
+        public Boolean visitLogicalExpression(LogicalExpression logicalExpression) {
+            return count() && accepts(logicalExpression.left) && accepts(logicalExpression.right);
+        }
+
+        @Override
+        public Boolean visitCallExpression(CallExpression callExpression) {
+            if (!count() || !accepts(callExpression.callee)) return false;
+
+            for (Expression argument : callExpression.arguments) {
+                if (!accepts(argument)) return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public Boolean visitGetExpression(GetExpression getExpression) {
+            return count() && accepts(getExpression.object);
+        }
+
+        @Override
+        public Boolean visitSetExpression(SetExpression setExpression) {
+            return count() && accepts(setExpression.object) && accepts(setExpression.value);
+        }
+
+        @Override
+        public Boolean visitThisExpression(ThisExpression thisExpression) {
+            return count() && inFrame(thisExpression.depth);
+        }
+
+        @Override
+        public Boolean visitSuperExpression(SuperExpression superExpression) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitLambdaExpression(LambdaExpression lambdaExpression) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitInvariantExpression(InvariantExpression invariantExpression) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitExpressionStatement(ExpressionStatement expressionStatement) {
+            return count() && accepts(expressionStatement.expression);
+        }
+
+        @Override
+        public Boolean visitPrintStatement(PrintStatement printStatement) {
+            return count() && accepts(printStatement.expression);
+        }
+
+        @Override
+        public Boolean visitVariableStatement(VariableStatement variableStatement) {
+            return count() && accepts(variableStatement.expression);
+        }
+
+        @Override
+        public Boolean visitBlockStatement(BlockStatement blockStatement) {
+            if (!blockStatement.allocatesEnvironment)
+                return count() && accepts(blockStatement.statements);
+
+            depth++;
+            try {
+                return count() && accepts(blockStatement.statements);
+            } finally {
+                depth--;
+            }
+        }
+
+        @Override
+        public Boolean visitIfStatement(IfStatement ifStatement) {
+            return count()
+                    && accepts(ifStatement.condition)
+                    && accepts(ifStatement.thenBranch)
+                    && accepts(ifStatement.elseBranch);
+        }
+
+        @Override
+        public Boolean visitWhileStatement(WhileStatement whileStatement) {
+            return count()
+                    && accepts(whileStatement.condition)
+                    && accepts(whileStatement.body)
+                    && accepts(whileStatement.increment);
+        }
+
+        @Override
+        public Boolean visitBreakStatement(BreakStatement breakStatement) {
+            return count();
+        }
+
+        @Override
+        public Boolean visitContinueStatement(ContinueStatement continueStatement) {
+            return count();
+        }
+
+        @Override
+        public Boolean visitFunctionStatement(FunctionStatement functionStatement) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitReturnStatement(ReturnStatement returnStatement) {
+            return count() && accepts(returnStatement.value);
+        }
+
+        @Override
+        public Boolean visitClassStatement(ClassStatement classStatement) {
+            return false;
+        }
+    }
+}
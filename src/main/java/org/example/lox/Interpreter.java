@@ -3,27 +3,50 @@ package org.example.lox;
 import org.example.lox.ast.Visitor;
 import org.example.lox.ast.expression.*;
 import org.example.lox.ast.statement.*;
-import org.example.lox.exception.Break;
-import org.example.lox.exception.Continue;
-import org.example.lox.exception.Return;
+import org.example.lox.closure.StatementNode;
 import org.example.lox.exception.RuntimeError;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class Interpreter implements Visitor<Object> {
 
-    final Environment globals = new Environment(null);
-    private Environment environment = globals;
-    private final Map<Expression, Integer> locals = new HashMap<>();
+    public final GlobalEnvironment globals = new GlobalEnvironment();
+    // The top level has no slots, its variables are all globals
+    private final Environment topLevel = new Environment(null, 0);
+    private Environment environment = topLevel;
     private long startTime;
+    private Object returnValue;
+    private boolean tailCalls = true;
+    private boolean jit = false;
+
+    // Second result of evaluateNumber, arithmetic, negate and unbox: whether the double they
+    // returned is the value, or the value was not a number and is in nonNumber instead. They are
+    // written as the last step before returning, after every evaluation nested in the operands
+    // (calls, getters, compiled code) is done, and the caller reads them right after the call
+    // returns. Nothing may be evaluated in between, or it overwrites them. nonNumber is read
+    // through takeNonNumber, which clears it
+    private boolean isNumber;
+    private Object nonNumber;
+
+    // Pending tail call, run by the LoxFunction whose frame is returning
+    LoxFunction tailFunction;
+    LoxInstance tailReceiver;
+    Object[] tailArguments;
+
+    // Profile of the interpreted function whose loops are running, which counts their iterations
+    JitProfile loopProfile;
 
     public Interpreter() {
         globals.define("clock", new LoxCallable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double) (System.currentTimeMillis() - startTime);
             }
 
@@ -39,6 +62,27 @@ public class Interpreter implements Visitor<Object> {
         });
     }
 
+    public void disableTailCalls() {
+        tailCalls = false;
+    }
+
+    public boolean hasTailCalls() {
+        return tailCalls;
+    }
+
+    public void enableJit() {
+        jit = true;
+    }
+
+    public void interpret(StatementNode program) {
+        startTime = System.currentTimeMillis();
+        try {
+            program.execute(topLevel);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
     public void interpret(List<Statement> statements) {
         startTime = System.currentTimeMillis();
         try {
@@ -57,14 +101,12 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitUnaryExpression(UnaryExpression unaryExpression) {
+        if (unaryExpression.operator.type == TokenType.MINUS)
+            return negate(unaryExpression);
+
         Object right = evaluate(unaryExpression.right);
 
         switch (unaryExpression.operator.type) {
-            case MINUS -> {
-                checkNumberOperand(unaryExpression.operator, right);
-                return -(double) right;
-            }
-
             case EXCLAMATION_MARK -> {
                 return !isTrue(right);
             }
@@ -82,68 +124,249 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitBinaryExpression(BinaryExpression binaryExpression) {
-        Object left = evaluate(binaryExpression.left);
-        Object right = evaluate(binaryExpression.right);
-
         switch (binaryExpression.operator.type) {
+            case PLUS, MINUS, ASTERISK, SLASH -> {
+                if (binaryExpression.inferredType == LoxType.STRING)
+                    return Rope.concatenate(evaluate(binaryExpression.left), evaluate(binaryExpression.right));
+
+                double value = arithmetic(binaryExpression);
+                return isNumber ? (Object) value : takeNonNumber();
+            }
+
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                return compare(binaryExpression);
+            }
+
+            default -> {
+                Object left = evaluate(binaryExpression.left);
+                Object right = evaluate(binaryExpression.right);
+                return binary(binaryExpression.operator, left, right);
+            }
+        }
+    }
+
+    // Numbers stay unboxed through nested arithmetic, comparisons and the local slots written
+    // with defineUnboxed; only the final result of an expression that needs an Object is boxed.
+    // A value that is not a number is evaluated as usual and left in nonNumber
+    private double evaluateNumber(Expression expression) {
+        if (expression instanceof BinaryExpression binary && isArithmetic(binary)
+                && binary.inferredType != LoxType.STRING)
+            return arithmetic(binary);
+
+        if (expression instanceof UnaryExpression unary && unary.operator.type == TokenType.MINUS)
+            return negate(unary);
+
+        // Operands that are plain locals and literals are read here rather than through the visitor
+        if (expression instanceof VariableExpression variable && variable.depth == 0 && !variable.shared) {
+            if (!environment.isUnboxed(variable.slot))
+                return unbox(environment.get(variable.slot));
+
+            isNumber = true;
+            return environment.getUnboxed(variable.slot);
+        }
+
+        if (expression instanceof LiteralExpression literal)
+            return unbox(literal.value);
+
+        return unbox(evaluate(expression));
+    }
+
+    // An operand the TypeInference proved to be a number, read without checking
+    private double provenNumber(Expression expression) {
+        if (expression instanceof BinaryExpression binary && isArithmetic(binary))
+            return arithmetic(binary);
+
+        if (expression instanceof UnaryExpression unary && unary.operator.type == TokenType.MINUS)
+            return negate(unary);
+
+        if (expression instanceof VariableExpression variable && variable.depth == 0 && !variable.shared) {
+            return environment.isUnboxed(variable.slot)
+                    ? environment.getUnboxed(variable.slot)
+                    : (double) environment.get(variable.slot);
+        }
+
+        if (expression instanceof LiteralExpression literal)
+            return (double) literal.value;
+
+        return (double) evaluate(expression);
+    }
+
+    private static boolean isProvenNumbers(BinaryExpression binaryExpression) {
+        return binaryExpression.left.inferredType == LoxType.NUMBER
+                && binaryExpression.right.inferredType == LoxType.NUMBER;
+    }
+
+    private double unbox(Object value) {
+        if (value instanceof Double number) {
+            isNumber = true;
+            return number;
+        }
+
+        isNumber = false;
+        nonNumber = value;
+        return 0;
+    }
+
+    private Object takeNonNumber() {
+        Object value = nonNumber;
+        nonNumber = null;
+        return value;
+    }
+
+    private static boolean isArithmetic(Expression expression) {
+        if (expression instanceof UnaryExpression unary)
+            return unary.operator.type == TokenType.MINUS;
+
+        return expression instanceof BinaryExpression binary && switch (binary.operator.type) {
+            case PLUS, MINUS, ASTERISK, SLASH -> true;
+            default -> false;
+        };
+    }
+
+    // Both operands are evaluated before any type error, as in the boxed path
+    private double arithmetic(BinaryExpression binaryExpression) {
+        Token operator = binaryExpression.operator;
+
+        if (isProvenNumbers(binaryExpression)) {
+            double left = provenNumber(binaryExpression.left);
+            double right = provenNumber(binaryExpression.right);
+            isNumber = true;
+            return arithmetic(operator, left, right);
+        }
+
+        double left = evaluateNumber(binaryExpression.left);
+        if (!isNumber) {
+            Object boxed = takeNonNumber();
+            return unbox(binary(operator, boxed, evaluate(binaryExpression.right)));
+        }
+
+        double right = evaluateNumber(binaryExpression.right);
+        if (!isNumber)
+            return unbox(binary(operator, left, takeNonNumber()));
+
+        isNumber = true;
+        return arithmetic(operator, left, right);
+    }
+
+    private static double arithmetic(Token operator, double left, double right) {
+        switch (operator.type) {
             case PLUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
+                return left + right;
+            }
 
-                if (left instanceof String && right instanceof String) {
-                    return left + (String) right;
-                }
+            case MINUS -> {
+                return left - right;
+            }
+
+            case ASTERISK -> {
+                return left * right;
+            }
+
+            default -> {
+                if (right == 0)
+                    throw new RuntimeError(operator, "Division by zero");
+
+                return left / right;
+            }
+        }
+    }
+
+    private Object compare(BinaryExpression binaryExpression) {
+        Token operator = binaryExpression.operator;
+
+        if (isProvenNumbers(binaryExpression))
+            return compare(operator, provenNumber(binaryExpression.left), provenNumber(binaryExpression.right));
 
-                if (left instanceof String && right instanceof Double) {
-                    return left + stringify(right);
+        double left = evaluateNumber(binaryExpression.left);
+        if (!isNumber) {
+            Object boxed = takeNonNumber();
+            return binary(operator, boxed, evaluate(binaryExpression.right));
+        }
+
+        double right = evaluateNumber(binaryExpression.right);
+        if (!isNumber)
+            return binary(operator, left, takeNonNumber());
+
+        return compare(operator, left, right);
+    }
+
+    private static boolean compare(Token operator, double left, double right) {
+        return switch (operator.type) {
+            case LESS -> left < right;
+            case LESS_EQUAL -> left <= right;
+            case GREATER -> left > right;
+            default -> left >= right;
+        };
+    }
+
+    private double negate(UnaryExpression unaryExpression) {
+        if (unaryExpression.right.inferredType == LoxType.NUMBER) {
+            double value = provenNumber(unaryExpression.right);
+            isNumber = true;
+            return -value;
+        }
+
+        double value = evaluateNumber(unaryExpression.right);
+        if (!isNumber)
+            checkNumberOperand(unaryExpression.operator, takeNonNumber());
+
+        return -value;
+    }
+
+    // Also the slow path of code compiled by the JitCompiler
+    public static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
+            case PLUS -> {
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left + (double) right;
                 }
 
-                if (left instanceof Double && right instanceof String) {
-                    return stringify(left) + right;
+                if (Rope.isString(left) && (Rope.isString(right) || right instanceof Double)
+                        || left instanceof Double && Rope.isString(right)) {
+                    return Rope.concatenate(left, right);
                 }
 
                 throw new RuntimeError(
-                        binaryExpression.operator,
+                        operator,
                         "Unsupported operand types"
                 );
             }
 
             case MINUS -> {
-                checkNumberOperands(binaryExpression.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left - (double) right;
             }
 
             case ASTERISK -> {
-                checkNumberOperands(binaryExpression.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left * (double) right;
             }
 
             case SLASH -> {
-                checkNumberOperands(binaryExpression.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 if ((double) right == 0)
-                    throw new RuntimeError(binaryExpression.operator, "Division by zero");
+                    throw new RuntimeError(operator, "Division by zero");
 
                 return (double) left / (double) right;
             }
 
             case LESS -> {
-                checkNumberOperands(binaryExpression.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left < (double) right;
             }
 
             case LESS_EQUAL -> {
-                checkNumberOperands(binaryExpression.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left <= (double) right;
             }
 
             case GREATER -> {
-                checkNumberOperands(binaryExpression.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left > (double) right;
             }
 
             case GREATER_EQUAL -> {
-                checkNumberOperands(binaryExpression.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left >= (double) right;
             }
 
@@ -161,7 +384,7 @@ public class Interpreter implements Visitor<Object> {
         }
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be numbers");
     }
@@ -178,18 +401,20 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitVariableExpression(VariableExpression variableExpression) {
-        return lookUpVariable(variableExpression.token, variableExpression);
+        Object value = lookUpVariable(variableExpression.token, variableExpression.depth, variableExpression.slot);
+        return variableExpression.shared ? ((Cell) value).value : value;
     }
 
     @Override
     public Object visitAssignmentExpression(AssignmentExpression assignmentExpression) {
         Object value = evaluate(assignmentExpression.expression);
 
-        Integer distance = locals.get(assignmentExpression);
-        if (distance != null) {
-            environment.assignAt(distance, assignmentExpression.token, value);
+        if (assignmentExpression.shared) {
+            ((Cell) environment.getAt(assignmentExpression.depth, assignmentExpression.slot)).value = value;
+        } else if (assignmentExpression.depth != -1) {
+            environment.assignAt(assignmentExpression.depth, assignmentExpression.slot, value);
         } else {
-            globals.assign(assignmentExpression.token, value);
+            globals.assign(assignmentExpression.slot, assignmentExpression.token, value);
         }
 
         return value;
@@ -210,31 +435,127 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitCallExpression(CallExpression callExpression) {
+        if (callExpression.callee instanceof GetExpression getExpression)
+            return invoke(getExpression, callExpression);
+
         Object callee = evaluate(callExpression.callee);
+        List<Expression> arguments = callExpression.arguments;
+        Token parenthesis = callExpression.rightParenthesis;
+
+        // Arguments go straight to the fixed-arity entry points; only long argument lists are packed
+        switch (arguments.size()) {
+            case 0 -> {
+                return checkCallable(callee, 0, parenthesis).call0(this);
+            }
+
+            case 1 -> {
+                Object a = evaluate(arguments.get(0));
+                return checkCallable(callee, 1, parenthesis).call1(this, a);
+            }
+
+            case 2 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return checkCallable(callee, 2, parenthesis).call2(this, a, b);
+            }
+
+            case 3 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                return checkCallable(callee, 3, parenthesis).call3(this, a, b, c);
+            }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expression argument : callExpression.arguments) {
-            arguments.add(evaluate(argument));
+            default -> {
+                Object[] values = evaluateArguments(arguments);
+                return checkCallable(callee, values.length, parenthesis).call(this, values);
+            }
         }
+    }
 
+    // obj.method(args) runs the method with 'this' placed straight into its frame,
+    // without going through a bound method
+    private Object invoke(GetExpression getExpression, CallExpression callExpression) {
+        Object object = evaluate(getExpression.object);
+        if (!(object instanceof LoxInstance loxInstance))
+            throw new RuntimeError(getExpression.name, "Only instances can have properties");
+
+        List<Expression> arguments = callExpression.arguments;
+        Token parenthesis = callExpression.rightParenthesis;
+
+        LoxFunction method = getExpression.cache.lookUpMethod(loxInstance);
+        if (method == null) {
+            Object callee = getExpression.cache.get(loxInstance);
+            Object[] values = evaluateArguments(arguments);
+            return checkCallable(callee, values.length, parenthesis).call(this, values);
+        }
+
+        switch (arguments.size()) {
+            case 0 -> {
+                checkArity(method, 0, parenthesis);
+                return method.invoke0(this, loxInstance);
+            }
+
+            case 1 -> {
+                Object a = evaluate(arguments.get(0));
+                checkArity(method, 1, parenthesis);
+                return method.invoke1(this, loxInstance, a);
+            }
+
+            case 2 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(method, 2, parenthesis);
+                return method.invoke2(this, loxInstance, a, b);
+            }
+
+            case 3 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                checkArity(method, 3, parenthesis);
+                return method.invoke3(this, loxInstance, a, b, c);
+            }
+
+            default -> {
+                Object[] values = evaluateArguments(arguments);
+                checkArity(method, values.length, parenthesis);
+                return method.invoke(this, loxInstance, values);
+            }
+        }
+    }
+
+    private Object[] evaluateArguments(List<Expression> expressions) {
+        Object[] arguments = new Object[expressions.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expressions.get(i));
+        }
+
+        return arguments;
+    }
+
+    public static LoxCallable checkCallable(Object callee, int argumentCount, Token parenthesis) {
         if (!(callee instanceof LoxCallable function))
-            throw new RuntimeError(callExpression.rightParenthesis, "Not a function");
+            throw new RuntimeError(parenthesis, "Not a function");
+
+        checkArity(function, argumentCount, parenthesis);
+        return function;
+    }
 
-        if (arguments.size() != function.arity()) {
+    public static void checkArity(LoxCallable function, int argumentCount, Token parenthesis) {
+        if (argumentCount != function.arity()) {
             throw new RuntimeError(
-                    callExpression.rightParenthesis,
-                    "Expected " + function.arity() + " arguments, but got " + arguments.size()
+                    parenthesis,
+                    "Expected " + function.arity() + " arguments, but got " + argumentCount
             );
         }
-
-        return function.call(this, arguments);
     }
 
     @Override
     public Object visitGetExpression(GetExpression getExpression) {
         Object object = evaluate(getExpression.object);
         if (object instanceof LoxInstance loxInstance)
-            return loxInstance.get(getExpression.name);
+            return getExpression.cache.get(loxInstance);
 
         throw new RuntimeError(getExpression.name, "Only instances can have properties");
     }
@@ -245,7 +566,7 @@ public class Interpreter implements Visitor<Object> {
 
         if (object instanceof LoxInstance loxInstance) {
             Object value = evaluate(setExpression.value);
-            loxInstance.set(setExpression.name, value);
+            setExpression.cache.set(loxInstance, value);
             return value;
         }
 
@@ -254,14 +575,13 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitThisExpression(ThisExpression thisExpression) {
-        return lookUpVariable(thisExpression.keyword, thisExpression);
+        return lookUpVariable(thisExpression.keyword, thisExpression.depth, thisExpression.slot);
     }
 
     @Override
     public Object visitSuperExpression(SuperExpression superExpression) {
-        int distance = locals.get(superExpression);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+        LoxClass superclass = (LoxClass) environment.getAt(superExpression.depth, superExpression.slot);
+        LoxInstance object = (LoxInstance) environment.getAt(superExpression.thisDepth, superExpression.thisSlot);
         LoxFunction method = superclass.findMethod(superExpression.method.lexeme);
         if (method == null) {
             throw new RuntimeError(
@@ -274,21 +594,106 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitLambdaExpression(LambdaExpression lambdaExpression) {
-        FunctionStatement functionStatement = new FunctionStatement(
-                null,
-                lambdaExpression.parameters,
-                lambdaExpression.body
-        );
+        return function(FunctionPrototype.of(lambdaExpression));
+    }
+
+    @Override
+    public Object visitInvariantExpression(InvariantExpression invariantExpression) {
+        // No expression that gets hoisted can evaluate to nil, so nil marks a value not computed yet
+        Object value = environment.getAt(invariantExpression.depth, invariantExpression.slot);
+        if (value == null) {
+            value = evaluate(invariantExpression.expression);
+            environment.assignAt(invariantExpression.depth, invariantExpression.slot, value);
+        }
+
+        return value;
+    }
+
+    // Runs the inlined body only while the call still reaches the declaration that was inlined;
+    // otherwise the call goes through as written
+    @Override
+    public Object visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        CallExpression callExpression = inlinedCallExpression.call;
+        FunctionStatement function = inlinedCallExpression.function;
+        LoxInstance receiver = null;
+
+        if (callExpression.callee instanceof GetExpression getExpression) {
+            Object object = evaluate(getExpression.object);
+            if (!(object instanceof LoxInstance loxInstance))
+                throw new RuntimeError(getExpression.name, "Only instances can have properties");
+
+            LoxFunction method = getExpression.cache.lookUpMethod(loxInstance);
+            if (method == null)
+                return callOutOfLine(getExpression.cache.get(loxInstance), null, callExpression);
+            if (!method.isDeclaredBy(function))
+                return callOutOfLine(method, loxInstance, callExpression);
+
+            receiver = loxInstance;
+        } else {
+            Object callee = evaluate(callExpression.callee);
+            if (!(callee instanceof LoxFunction loxFunction) || !loxFunction.isDeclaredBy(function))
+                return callOutOfLine(callee, null, callExpression);
+        }
+
+        boolean isExpression = inlinedCallExpression.body != null;
+        Environment frame = isExpression ? environment : new Environment(environment, function.slotCount);
+        int slot = isExpression ? inlinedCallExpression.slot : 0;
+
+        if (receiver != null)
+            frame.define(slot++, receiver);
+
+        for (Expression argument : callExpression.arguments)
+            frame.define(slot++, evaluate(argument));
+
+        if (isExpression)
+            return evaluate(inlinedCallExpression.body);
+
+        Completion completion = executeBlock(function.body, frame);
+        if (completion != Completion.RETURN) return null;
+        if (tailFunction == null) return takeReturnValue();
+
+        // A 'return f(...)' in the inlined body leaves its call pending, as it would for the function
+        return callPending();
+    }
+
+    private Object callOutOfLine(Object callee, LoxInstance receiver, CallExpression callExpression) {
+        Object[] arguments = evaluateArguments(callExpression.arguments);
+        Token parenthesis = callExpression.rightParenthesis;
+
+        if (receiver != null) {
+            LoxFunction method = (LoxFunction) callee;
+            checkArity(method, arguments.length, parenthesis);
+            return method.invoke(this, receiver, arguments);
+        }
 
-        return new LoxFunction(functionStatement, environment, false);
+        return checkCallable(callee, arguments.length, parenthesis).call(this, arguments);
     }
 
     @Override
     public Object visitExpressionStatement(ExpressionStatement expressionStatement) {
-        evaluate(expressionStatement.expression);
+        evaluateForEffect(expressionStatement.expression);
         return null;
     }
 
+    // An assignment whose value nobody uses stores arithmetic in a local without boxing it.
+    // Assignments to locals in other frames all go to shared Cells, which hold Objects
+    private void evaluateForEffect(Expression expression) {
+        if (expression instanceof AssignmentExpression assignment
+                && assignment.depth == 0
+                && !assignment.shared
+                && isArithmetic(assignment.expression)) {
+            double value = evaluateNumber(assignment.expression);
+            if (isNumber)
+                environment.defineUnboxed(assignment.slot, value);
+            else
+                environment.assign(assignment.slot, takeNonNumber());
+
+            return;
+        }
+
+        evaluate(expression);
+    }
+
     @Override
     public Object visitPrintStatement(PrintStatement printStatement) {
         Object value = evaluate(printStatement.expression);
@@ -298,43 +703,102 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitVariableStatement(VariableStatement variableStatement) {
+        if (variableStatement.shared) {
+            // A closure in the initializer captures the Cell before it holds the value
+            Cell cell = new Cell(null);
+            environment.define(variableStatement.slot, cell);
+            if (variableStatement.expression != null)
+                cell.value = evaluate(variableStatement.expression);
+
+            return null;
+        }
+
+        if (variableStatement.slot != -1 && variableStatement.expression != null && isArithmetic(variableStatement.expression)) {
+            double value = evaluateNumber(variableStatement.expression);
+            if (isNumber)
+                environment.defineUnboxed(variableStatement.slot, value);
+            else
+                environment.define(variableStatement.slot, takeNonNumber());
+
+            return null;
+        }
+
         Object value = null;
         if (variableStatement.expression != null) {
             value = evaluate(variableStatement.expression);
         }
 
-        environment.define(variableStatement.token.lexeme, value);
+        define(variableStatement.slot, variableStatement.token, value);
         return null;
     }
 
     @Override
     public Object visitBlockStatement(BlockStatement blockStatement) {
-        executeBlock(blockStatement.statements, new Environment(environment));
-        return null;
+        if (!blockStatement.allocatesEnvironment)
+            return executeStatements(blockStatement.statements);
+
+        return executeBlock(blockStatement.statements, new Environment(environment, blockStatement.slotCount));
     }
 
     @Override
     public Object visitIfStatement(IfStatement ifStatement) {
         if (isTrue(evaluate(ifStatement.condition))) {
-            execute(ifStatement.thenBranch);
+            return execute(ifStatement.thenBranch);
         } else if (ifStatement.elseBranch != null) {
-            execute(ifStatement.elseBranch);
+            return execute(ifStatement.elseBranch);
         }
         return null;
     }
 
     @Override
     public Object visitWhileStatement(WhileStatement whileStatement) {
+        if (whileStatement.countedLoop != null)
+            return executeCountedLoop(whileStatement, whileStatement.countedLoop);
+
+        return executeWhile(whileStatement);
+    }
+
+    private Completion executeWhile(WhileStatement whileStatement) {
         while (isTrue(evaluate(whileStatement.condition))) {
-            try {
-                execute(whileStatement.body);
-            } catch (Break ignored) {
-                break;
-            } catch (Continue ignored) {
-                if (whileStatement.increment != null) {
-                    evaluate(whileStatement.increment);
-                }
-            }
+            Completion completion = execute(whileStatement.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+
+            if (whileStatement.increment != null)
+                evaluateForEffect(whileStatement.increment);
+
+            if (loopProfile != null)
+                loopProfile.backEdges++;
+        }
+
+        return null;
+    }
+
+    // The induction variable lives in a double; its slot is only written for the body to read.
+    // A loop that does not start from a number takes the general path, which reports the error
+    private Completion executeCountedLoop(WhileStatement whileStatement, CountedLoop loop) {
+        loop.clearInvariants(environment);
+        if (!(environment.get(loop.slot) instanceof Double start))
+            return executeWhile(whileStatement);
+
+        double index = start;
+        double limit = loop.invariantLimit ? loop.limit(evaluate(loop.limit)) : 0;
+
+        while (true) {
+            if (!loop.invariantLimit)
+                limit = loop.limit(evaluate(loop.limit));
+
+            if (!loop.test(index, limit)) break;
+
+            Completion completion = execute(whileStatement.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+
+            index += loop.step;
+            environment.defineUnboxed(loop.slot, index);
+
+            if (loopProfile != null)
+                loopProfile.backEdges++;
         }
 
         return null;
@@ -342,28 +806,50 @@ public class Interpreter implements Visitor<Object> {
 
     @Override
     public Object visitBreakStatement(BreakStatement breakStatement) {
-        throw new Break();
+        return Completion.BREAK;
     }
 
     @Override
     public Object visitContinueStatement(ContinueStatement continueStatement) {
-        throw new Continue();
+        return Completion.CONTINUE;
     }
 
     @Override
     public Object visitFunctionStatement(FunctionStatement functionStatement) {
-        LoxFunction function = new LoxFunction(functionStatement, environment, false);
-        environment.define(functionStatement.token.lexeme, function);
+        if (functionStatement.shared) {
+            Cell cell = new Cell(null);
+            environment.define(functionStatement.slot, cell);
+            cell.value = function(FunctionPrototype.of(functionStatement));
+            return null;
+        }
+
+        define(functionStatement.slot, functionStatement.token, function(FunctionPrototype.of(functionStatement)));
         return null;
     }
 
+    // In the JIT tier functions and lambdas are profiled, once per declaration. Methods, which
+    // find 'this' in slot 0, always stay interpreted
+    private LoxFunction function(FunctionPrototype prototype) {
+        if (jit && prototype.profile == null)
+            prototype.profile = new JitProfile();
+
+        return new LoxFunction(prototype, environment.capture(prototype.captures), false);
+    }
+
     @Override
     public Object visitReturnStatement(ReturnStatement returnStatement) {
+        if (tailCalls && returnStatement.value instanceof CallExpression callExpression)
+            return tailCall(callExpression);
+
+        // Running an inlined body here would nest the calls it makes in tail position
+        if (tailCalls && returnStatement.value instanceof InlinedCallExpression inlined && inlined.body == null)
+            return tailCall(inlined.call);
+
         Object value = null;
         if (returnStatement.value != null)
             value = evaluate(returnStatement.value);
 
-        throw new Return(value);
+        return returnWith(value);
     }
 
     @Override
@@ -375,22 +861,26 @@ public class Interpreter implements Visitor<Object> {
                 throw new RuntimeError(classStatement.superclass.token, "Superclass must be a class");
         }
 
-        environment.define(classStatement.name.lexeme, null);
+        Cell cell = classStatement.shared ? new Cell(null) : null;
+        define(classStatement.slot, classStatement.name, cell);
 
         if (superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (FunctionStatement method : classStatement.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.token.lexeme.equals("init"));
+            boolean isInitializer = method.token.lexeme.equals("init");
+            FunctionPrototype prototype = FunctionPrototype.of(method);
+            LoxFunction function = new LoxFunction(prototype, environment.capture(prototype.captures), isInitializer);
             methods.put(method.token.lexeme, function);
         }
 
         Map<Token, LoxFunction> classMethods = new HashMap<>();
         for (FunctionStatement method : classStatement.classMethods) {
-            LoxFunction function = new LoxFunction(method, environment, false);
+            FunctionPrototype prototype = FunctionPrototype.of(method);
+            LoxFunction function = new LoxFunction(prototype, environment.capture(prototype.captures), false);
             classMethods.put(method.token, function);
         }
 
@@ -399,45 +889,121 @@ public class Interpreter implements Visitor<Object> {
         if (superclass != null)
             environment = environment.parent;
 
-        environment.assign(classStatement.name, clazz);
+        if (cell != null)
+            cell.value = clazz;
+        else if (classStatement.slot == -1)
+            globals.define(classStatement.name.lexeme, clazz);
+        else
+            environment.define(classStatement.slot, clazz);
+
         return null;
     }
 
-    public void executeBlock(List<Statement> statements, Environment environment) {
+    public Completion executeBlock(List<Statement> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-
-            for (Statement statement : statements)
-                execute(statement);
-
+            return executeStatements(statements);
         } finally {
             this.environment = previous;
         }
     }
 
-    private void execute(Statement statement) {
-        statement.accept(this);
+    private Completion executeStatements(List<Statement> statements) {
+        for (Statement statement : statements) {
+            Completion completion = execute(statement);
+            if (completion != null) return completion;
+        }
+
+        return null;
+    }
+
+    // Returns travel up as a plain value instead of an exception; the function being
+    // returned from picks the value up with takeReturnValue
+    public Completion returnWith(Object value) {
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    // Evaluates the callee and arguments of 'return f(...)' and leaves the call itself to the
+    // returning function, so recursion in tail position runs in constant Java stack
+    private Completion tailCall(CallExpression callExpression) {
+        Token parenthesis = callExpression.rightParenthesis;
+
+        Object callee;
+        if (callExpression.callee instanceof GetExpression getExpression) {
+            Object object = evaluate(getExpression.object);
+            if (!(object instanceof LoxInstance loxInstance))
+                throw new RuntimeError(getExpression.name, "Only instances can have properties");
+
+            LoxFunction method = getExpression.cache.lookUpMethod(loxInstance);
+            if (method != null) {
+                Object[] arguments = evaluateArguments(callExpression.arguments);
+                checkArity(method, arguments.length, parenthesis);
+                return tailCall(method, loxInstance, arguments);
+            }
+
+            callee = getExpression.cache.get(loxInstance);
+        } else {
+            callee = evaluate(callExpression.callee);
+        }
+
+        Object[] arguments = evaluateArguments(callExpression.arguments);
+        LoxCallable function = checkCallable(callee, arguments.length, parenthesis);
+        if (function instanceof LoxFunction loxFunction)
+            return tailCall(loxFunction, null, arguments);
+
+        return returnWith(function.call(this, arguments));
+    }
+
+    public Completion tailCall(LoxFunction function, LoxInstance receiver, Object[] arguments) {
+        tailFunction = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return Completion.RETURN;
+    }
+
+    // Runs the call a 'return f(...)' left pending, for a caller that is not a returning LoxFunction
+    public Object callPending() {
+        LoxFunction function = tailFunction;
+        LoxInstance receiver = tailReceiver;
+        Object[] arguments = tailArguments;
+        tailFunction = null;
+        tailReceiver = null;
+        tailArguments = null;
+
+        return receiver != null ? function.invoke(this, receiver, arguments) : function.call(this, arguments);
+    }
+
+    public Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    private Completion execute(Statement statement) {
+        return (Completion) statement.accept(this);
     }
 
     private Object evaluate(Expression expression) {
         return expression.accept(this);
     }
 
-    private boolean isTrue(Object value) {
+    public static boolean isTrue(Object value) {
         if (value == null) return false;
         if (value instanceof Boolean) return ((Boolean) value);
         return true;
     }
 
-    private boolean isEqual(Object value1, Object value2) {
+    public static boolean isEqual(Object value1, Object value2) {
         if (value1 == null && value2 == null) return true;
         if (value1 == null) return false;
+        if (value2 instanceof Rope) return value2.equals(value1);
 
         return value1.equals(value2);
     }
 
-    private String stringify(Object value) {
+    public static String stringify(Object value) {
         if (value == null) return "nil";
 
         if (value instanceof Double) {
@@ -451,15 +1017,17 @@ public class Interpreter implements Visitor<Object> {
         return value.toString();
     }
 
-    private Object lookUpVariable(Token token, Expression expression) {
-        Integer distance = locals.get(expression);
-        if (distance != null)
-            return environment.getAt(distance, token.lexeme);
-
-        return globals.get(token);
+    private void define(int slot, Token token, Object value) {
+        if (slot == -1)
+            globals.define(token.lexeme, value);
+        else
+            environment.define(slot, value);
     }
 
-    public void resolve(Expression expression, int depth) {
-        locals.put(expression, depth);
+    private Object lookUpVariable(Token token, int depth, int slot) {
+        if (depth != -1)
+            return environment.getAt(depth, slot);
+
+        return globals.get(slot, token);
     }
 }
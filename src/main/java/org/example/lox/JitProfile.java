@@ -0,0 +1,104 @@
+package org.example.lox;
+
+import org.example.lox.jit.CompiledCode;
+import org.example.lox.jit.JitCompiler;
+import org.example.lox.jit.JitRuntime;
+
+// Runs the functions made from one declaration in the JIT tier, which all share the profile and the
+// compiled code and differ only in their closure. Calls and loop iterations interpreted add up;
+// once they pass the compile threshold the next call compiles it with the JitCompiler, which assumes
+// numbers for the parameters that got one on every call profiled. When a call's arguments break
+// that assumption the compiled code deoptimizes and the call is interpreted, with its arguments
+// profiled. Code that keeps deoptimizing is dropped and the function profiled and compiled again,
+// up to COMPILATION_LIMIT times in all
+public class JitProfile {
+    public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+    private static int compileThreshold = DEFAULT_COMPILE_THRESHOLD;
+    private static final int DEOPTIMIZATION_LIMIT = 100;
+    private static final int COMPILATION_LIMIT = 3;
+
+    // Counted by the Interpreter's loops while the function runs interpreted
+    int backEdges = 0;
+    private int invocations = 0;
+    // Bit i is set while every profiled call passed a number as argument i
+    private long numberArguments = -1;
+
+    private CompiledCode code;
+    private int deoptimizations = 0;
+    private int compilations = 0;
+    // Set once the function turned out not to compile, or kept deoptimizing
+    private boolean interpretOnly = false;
+
+    public static void setCompileThreshold(int threshold) {
+        compileThreshold = threshold;
+    }
+
+    CompiledCode code() {
+        return code;
+    }
+
+    boolean isWarmingUp() {
+        return code == null && !interpretOnly;
+    }
+
+    Completion run(LoxFunction function, Interpreter interpreter, Environment frame) {
+        if (code == null && !interpretOnly) {
+            profileArguments(function, frame);
+            if (++invocations + backEdges >= compileThreshold)
+                compile(function, interpreter);
+        }
+
+        if (code != null) {
+            Object value = enter(function, interpreter, frame);
+            if (value == JitRuntime.TAIL_CALL) return Completion.RETURN;
+            if (value != JitRuntime.DEOPTIMIZE) return interpreter.returnWith(value);
+
+            deoptimize(function, frame);
+        }
+
+        JitProfile caller = interpreter.loopProfile;
+        interpreter.loopProfile = this;
+        try {
+            return interpreter.executeBlock(function.prototype.body, frame);
+        } finally {
+            interpreter.loopProfile = caller;
+        }
+    }
+
+    private void profileArguments(LoxFunction function, Environment frame) {
+        int count = Math.min(function.arity(), Long.SIZE);
+        for (int i = 0; i < count; i++) {
+            if (!(frame.get(i) instanceof Double))
+                numberArguments &= ~(1L << i);
+        }
+    }
+
+    private void compile(LoxFunction function, Interpreter interpreter) {
+        compilations++;
+        code = JitCompiler.compile(function.prototype, numberArguments, interpreter.hasTailCalls());
+        if (code == null)
+            interpretOnly = true;
+    }
+
+    private Object enter(LoxFunction function, Interpreter interpreter, Environment frame) {
+        try {
+            return (Object) code.entry().invokeExact(interpreter, function, frame);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable throwable) {
+            throw new IllegalStateException(throwable);
+        }
+    }
+
+    private void deoptimize(LoxFunction function, Environment frame) {
+        profileArguments(function, frame);
+        if (++deoptimizations < DEOPTIMIZATION_LIMIT)
+            return;
+
+        code = null;
+        deoptimizations = 0;
+        invocations = 0;
+        backEdges = 0;
+        interpretOnly = compilations == COMPILATION_LIMIT;
+    }
+}
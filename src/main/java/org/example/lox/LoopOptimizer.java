@@ -0,0 +1,243 @@
+package org.example.lox;
+
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+
+import java.util.List;
+
+// Runs after the Optimizer and looks for counted loops, the block a 'for' desugars into:
+//   { var i = a; while (i < b) body; i = i + c }
+// where the body never assigns i. The WhileStatement gets a CountedLoop so the backends can drive
+// i as a double, and pure expressions in the body that only read variables the loop never changes
+// are wrapped in an InvariantExpression, which computes them once per run of the loop
+public class LoopOptimizer extends Optimizer {
+    private LoopContext context;
+
+    private static class LoopContext {
+        final LoopContext enclosing;
+        // Block, function or lambda whose Environment the loop runs in
+        final Object frame;
+        final int slot;
+
+        // Environments between the expression being visited and the loop's frame
+        int depth = 0;
+
+        LoopContext(LoopContext enclosing, Object frame, int slot) {
+            this.enclosing = enclosing;
+            this.frame = frame;
+            this.slot = slot;
+        }
+    }
+
+    @Override
+    public Object visitUnaryExpression(UnaryExpression unaryExpression) {
+        if (context != null && isInvariant(unaryExpression, context))
+            return hoist(unaryExpression);
+
+        return super.visitUnaryExpression(unaryExpression);
+    }
+
+    @Override
+    public Object visitBinaryExpression(BinaryExpression binaryExpression) {
+        if (context != null && isInvariant(binaryExpression, context))
+            return hoist(binaryExpression);
+
+        return super.visitBinaryExpression(binaryExpression);
+    }
+
+    @Override
+    public Object visitLambdaExpression(LambdaExpression lambdaExpression) {
+        LoopContext enclosing = enterFunction();
+        try {
+            return super.visitLambdaExpression(lambdaExpression);
+        } finally {
+            context = enclosing;
+        }
+    }
+
+    @Override
+    public Object visitBlockStatement(BlockStatement blockStatement) {
+        if (!isCountedLoop(blockStatement))
+            return super.visitBlockStatement(blockStatement);
+
+        if (!blockStatement.allocatesEnvironment)
+            return optimizeCountedLoop(blockStatement);
+
+        pushFrame(blockStatement);
+        try {
+            return optimizeCountedLoop(blockStatement);
+        } finally {
+            popFrame();
+        }
+    }
+
+    @Override
+    protected void pushFrame(Object frame) {
+        super.pushFrame(frame);
+        shiftDepth(1);
+    }
+
+    @Override
+    protected void popFrame() {
+        shiftDepth(-1);
+        super.popFrame();
+    }
+
+    private void shiftDepth(int delta) {
+        for (LoopContext loop = context; loop != null; loop = loop.enclosing)
+            loop.depth += delta;
+    }
+
+    @Override
+    public Object visitFunctionStatement(FunctionStatement functionStatement) {
+        LoopContext enclosing = enterFunction();
+        try {
+            return super.visitFunctionStatement(functionStatement);
+        } finally {
+            context = enclosing;
+        }
+    }
+
+    @Override
+    public Object visitClassStatement(ClassStatement classStatement) {
+        LoopContext enclosing = enterFunction();
+        try {
+            return super.visitClassStatement(classStatement);
+        } finally {
+            context = enclosing;
+        }
+    }
+
+    // Function bodies run in their own frames, out of reach of the loop's memo slots
+    private LoopContext enterFunction() {
+        LoopContext enclosing = context;
+        context = null;
+        return enclosing;
+    }
+
+    private BlockStatement optimizeCountedLoop(BlockStatement blockStatement) {
+        List<Statement> statements = blockStatement.statements;
+        VariableStatement initializer = (VariableStatement) statements.get(0);
+        WhileStatement whileStatement = (WhileStatement) statements.get(1);
+        BinaryExpression condition = (BinaryExpression) whileStatement.condition;
+
+        statements.set(0, optimize(initializer));
+        Expression limit = optimize(condition.right);
+        Expression increment = optimize(whileStatement.increment);
+
+        LoopContext loop = new LoopContext(context, currentFrame(), initializer.slot);
+        int firstInvariantSlot = slotCount(loop.frame);
+        context = loop;
+        Statement body;
+        try {
+            body = optimizeBody(whileStatement.body);
+        } finally {
+            context = loop.enclosing;
+        }
+
+        Expression test = limit == condition.right
+                ? condition
+                : new BinaryExpression(condition.left, condition.operator, limit);
+
+        WhileStatement result = new WhileStatement(test, body, increment);
+        result.countedLoop = new CountedLoop(
+                initializer.slot,
+                condition.operator,
+                limit,
+                isInvariant(limit, loop),
+                step(whileStatement.increment),
+                firstInvariantSlot,
+                slotCount(loop.frame) - firstInvariantSlot
+        );
+
+        statements.set(1, result);
+        return blockStatement;
+    }
+
+    private static boolean isCountedLoop(BlockStatement blockStatement) {
+        List<Statement> statements = blockStatement.statements;
+        if (statements.size() != 2) return false;
+        if (!(statements.get(0) instanceof VariableStatement initializer)) return false;
+        if (!(statements.get(1) instanceof WhileStatement whileStatement)) return false;
+
+        // The increment is the only assignment to the induction variable, which no closure shares
+        if (initializer.slot == -1 || initializer.shared || initializer.assignmentCount != 1) return false;
+
+        if (!(whileStatement.condition instanceof BinaryExpression condition)) return false;
+        switch (condition.operator.type) {
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+            }
+            default -> {
+                return false;
+            }
+        }
+
+        if (!isInduction(condition.left, initializer.slot)) return false;
+
+        if (!(whileStatement.increment instanceof AssignmentExpression assignment)) return false;
+        if (assignment.depth != 0 || assignment.slot != initializer.slot) return false;
+        if (!(assignment.expression instanceof BinaryExpression update)) return false;
+
+        return switch (update.operator.type) {
+            case PLUS -> isInduction(update.left, initializer.slot) && isNumber(update.right)
+                    || isNumber(update.left) && isInduction(update.right, initializer.slot);
+            case MINUS -> isInduction(update.left, initializer.slot) && isNumber(update.right);
+            default -> false;
+        };
+    }
+
+    private static double step(Expression increment) {
+        BinaryExpression update = (BinaryExpression) ((AssignmentExpression) increment).expression;
+        LiteralExpression literal = (LiteralExpression) (update.right instanceof LiteralExpression
+                ? update.right
+                : update.left);
+
+        double step = (double) literal.value;
+        return update.operator.type == TokenType.MINUS ? -step : step;
+    }
+
+    private static boolean isInduction(Expression expression, int slot) {
+        return expression instanceof VariableExpression variable && variable.depth == 0 && variable.slot == slot;
+    }
+
+    private static boolean isNumber(Expression expression) {
+        return expression instanceof LiteralExpression literal && literal.value instanceof Double;
+    }
+
+    // Pure expressions over literals and variables declared outside the loop that are either
+    // never reassigned or the induction variable of an enclosing counted loop. Blocks without an
+    // Environment share their frame's slots, the loop's own variables and those of the blocks in
+    // it all come from the induction variable's slot on
+    private static boolean isInvariant(Expression expression, LoopContext loop) {
+        if (expression instanceof LiteralExpression || expression instanceof InvariantExpression)
+            return true;
+
+        if (expression instanceof UnaryExpression unary)
+            return isInvariant(unary.right, loop);
+
+        if (expression instanceof BinaryExpression binary)
+            return isInvariant(binary.left, loop) && isInvariant(binary.right, loop);
+
+        if (expression instanceof VariableExpression variable) {
+            if (variable.depth < loop.depth) return false;
+            if (variable.depth == loop.depth && variable.slot >= loop.slot) return false;
+            if (variable.declaration != null && variable.declaration.assignmentCount == 0) return true;
+
+            for (LoopContext outer = loop.enclosing; outer != null; outer = outer.enclosing) {
+                if (variable.depth == outer.depth && variable.slot == outer.slot)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    // The result is stored in an extra slot of the loop's frame when first needed, so an
+    // expression that fails still fails only if and when the body reaches it
+    private InvariantExpression hoist(Expression expression) {
+        InvariantExpression result = new InvariantExpression(expression);
+        result.depth = context.depth;
+        result.slot = allocateSlots(context.frame, 1);
+        return result;
+    }
+}
@@ -1,26 +1,86 @@
 package org.example.lox;
 
+import org.example.lox.aot.AotCompiler;
+import org.example.lox.aot.JavaTranspiler;
 import org.example.lox.ast.statement.Statement;
+import org.example.lox.closure.ClosureCompiler;
 import org.example.lox.exception.RuntimeError;
+import org.example.lox.vm.VM;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class Lox {
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
+    private static boolean useVm = false;
+    private static boolean useClosures = false;
+    private static boolean printCacheStatistics = false;
+    private static boolean optimize = true;
+    private static boolean printInlineReport = false;
+    private static boolean printTypeReport = false;
+    private static int inlineLimit = Inliner.DEFAULT_SIZE_LIMIT;
+    // 'jlox compile' translates the script to Java and runs that, or writes it to this jar
+    private static boolean compileToJava = false;
+    private static Path jar = null;
 
     private static final Interpreter interpreter = new Interpreter();
+    private static final VM vm = new VM();
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        if (args.length > 0 && args[0].equals("compile")) {
+            compileToJava = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        while (args.length > 0 && args[0].startsWith("--")) {
+            // The other options pick or report on a backend, and compiled programs use none of them
+            if (compileToJava && !isCompileOption(args[0]))
+                unknownOption(args[0]);
+
+            switch (args[0]) {
+                case "--vm" -> useVm = true;
+                case "--closure" -> useClosures = true;
+                case "--no-tail-calls" -> interpreter.disableTailCalls();
+                case "--jit" -> interpreter.enableJit();
+                case "--no-optimize" -> optimize = false;
+                case "--cache-stats" -> {
+                    printCacheStatistics = true;
+                    PropertyCache.recordSites();
+                }
+                case "--inline-report" -> printInlineReport = true;
+                case "--type-report" -> printTypeReport = true;
+                default -> {
+                    if (args[0].matches("--inline-limit=\\d+")) {
+                        inlineLimit = Integer.parseInt(args[0].substring("--inline-limit=".length()));
+                    } else if (args[0].matches("--jit-threshold=\\d+")) {
+                        JitProfile.setCompileThreshold(Integer.parseInt(args[0].substring("--jit-threshold=".length())));
+                    } else if (compileToJava && args[0].startsWith("--jar=")) {
+                        jar = Paths.get(args[0].substring("--jar=".length()));
+                    } else {
+                        unknownOption(args[0]);
+                    }
+                }
+            }
+
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        if (args.length > 1 || compileToJava && args.length == 0) {
+            System.out.println("Usage: jlox [--vm | --closure | --jit] [--cache-stats] [--no-tail-calls] [--no-optimize] [--inline-report] [--type-report] [--inline-limit=<nodes>] [--jit-threshold=<count>] [script]");
+            System.out.println("       jlox compile [--jar=<file>] [--no-tail-calls] [--no-optimize] [--inline-limit=<nodes>] script");
+            System.out.println("--vm has no tail calls and nests at most 10000 calls; its plain numeric loops run slower than the default interpreter");
             System.exit(64);
+        } else if (compileToJava) {
+            compileFile(args[0]);
         } else if (args.length == 1) {
             runFile(args[0]);
         } else {
@@ -28,10 +88,23 @@ public class Lox {
         }
     }
 
+    private static boolean isCompileOption(String option) {
+        return option.equals("--no-tail-calls") || option.equals("--no-optimize")
+                || option.matches("--inline-limit=\\d+") || option.startsWith("--jar=");
+    }
+
+    private static void unknownOption(String option) {
+        System.out.println("Unknown option: " + option);
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
 
+        if (printCacheStatistics)
+            PropertyCache.printStatistics(System.err);
+
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
@@ -49,32 +122,98 @@ public class Lox {
         }
     }
 
+    private static void compileFile(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        List<Statement> statements = analyze(new String(bytes, Charset.defaultCharset()));
+        if (hadError) System.exit(65);
+
+        String className = className(Paths.get(path));
+        String source = JavaTranspiler.transpile(statements, className, interpreter.hasTailCalls());
+        Map<String, byte[]> classes = AotCompiler.compile(className, source);
+
+        if (jar != null) {
+            AotCompiler.writeJar(jar, className, classes);
+            return;
+        }
+
+        try {
+            AotCompiler.run(className, classes, new String[0]);
+        } catch (RuntimeException | Error | IOException error) {
+            throw error;
+        } catch (Throwable throwable) {
+            throw new IllegalStateException(throwable);
+        }
+    }
+
+    // The script's file name as a Java identifier, kept apart from the runtime's class names
+    private static String className(Path path) {
+        String name = path.getFileName().toString().replaceFirst("\\.lox$", "");
+        StringBuilder className = new StringBuilder();
+        for (char c : name.toCharArray())
+            className.append(Character.isJavaIdentifierPart(c) ? c : '_');
+
+        if (className.isEmpty() || !Character.isJavaIdentifierStart(className.charAt(0)))
+            className.insert(0, '_');
+
+        className.setCharAt(0, Character.toUpperCase(className.charAt(0)));
+        return className + "Program";
+    }
+
     private static void run(String source) {
+        List<Statement> statements = analyze(source);
+        if (hadError) return;
+
+        if (useVm)
+            vm.interpret(statements);
+        else if (useClosures)
+            interpreter.interpret(new ClosureCompiler(interpreter).compile(statements));
+        else
+            interpreter.interpret(statements);
+
+//        for (Statement statement : statements)
+//            System.out.println(new AstPrinter().print(statement));
+    }
+
+    // Parses, resolves and optimizes a program, which is only usable if that reported no error
+    private static List<Statement> analyze(String source) {
         Lexer lexer = new Lexer(source);
         List<Token> tokens = lexer.scanTokens();
 
         Parser parser = new Parser(tokens);
         List<Statement> statements = parser.parse();
 
-        if (hadError) return;
+        if (hadError) return statements;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(interpreter.globals);
         resolver.resolve(statements);
 
-        if (hadError) return;
+        if (hadError) return statements;
 
-        interpreter.interpret(statements);
+        if (optimize) {
+            new Optimizer().optimize(statements);
 
-//        for (Statement statement : statements)
-//            System.out.println(new AstPrinter().print(statement));
+            Inliner inliner = new Inliner(inlineLimit);
+            inliner.optimize(statements);
+            if (printInlineReport)
+                inliner.printReport(System.err);
+
+            new LoopOptimizer().optimize(statements);
+
+            TypeInference typeInference = new TypeInference();
+            typeInference.infer(statements);
+            if (printTypeReport)
+                typeInference.printReport(System.err);
+        }
+
+        return statements;
     }
 
     public static void runtimeError(RuntimeError error) {
-        System.err.println("[line " + error.token.line + "] " + error.getMessage());
+        System.err.println("[line " + error.line + "] " + error.getMessage());
         hadRuntimeError = true;
     }
 
-    static void error(int line, String message) {
+    public static void error(int line, String message) {
         report(line, "", message);
     }
 
@@ -1,12 +1,14 @@
 package org.example.lox;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable {
     public final String name;
     final LoxClass superClass;
     private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    final Shape instanceShape = new Shape();
 
     public LoxClass(
             String name,
@@ -17,7 +19,14 @@ public class LoxClass extends LoxInstance implements LoxCallable {
         super(null);
         this.name = name;
         this.superClass = superClass;
-        this.methods = methods;
+
+        // Inherited methods are copied in up front, so lookups never walk the superclass chain
+        this.methods = new HashMap<>();
+        if (superClass != null)
+            this.methods.putAll(superClass.methods);
+
+        this.methods.putAll(methods);
+        this.initializer = this.methods.get("init");
 
         for (Map.Entry<Token, LoxFunction> entry : classMethods.entrySet())
             set(entry.getKey(), entry.getValue());
@@ -29,18 +38,47 @@ public class LoxClass extends LoxInstance implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null)
+            initializer.invoke(interpreter, instance, arguments);
+
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null)
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke0(interpreter, instance);
+
+        return instance;
+    }
+
+    // Callers check arity first, so receiving arguments means there is an initializer
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke1(interpreter, instance, a);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke2(interpreter, instance, a, b);
+        return instance;
+    }
 
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke3(interpreter, instance, a, b, c);
         return instance;
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null)
             return 0;
 
@@ -48,12 +86,6 @@ public class LoxClass extends LoxInstance implements LoxCallable {
     }
 
     public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name))
-            return methods.get(name);
-
-        if (superClass != null)
-            return superClass.findMethod(name);
-
-        return null;
+        return methods.get(name);
     }
 }
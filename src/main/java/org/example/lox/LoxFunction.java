@@ -2,49 +2,173 @@ package org.example.lox;
 
 import lombok.RequiredArgsConstructor;
 import org.example.lox.ast.statement.FunctionStatement;
-import org.example.lox.exception.Return;
-
-import java.util.List;
+import org.example.lox.jit.CompiledCode;
 
 @RequiredArgsConstructor
 public class LoxFunction implements LoxCallable {
-    private final FunctionStatement declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    protected final FunctionPrototype prototype;
+    protected final Environment closure;
+    protected final boolean isInitializer;
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(i, arguments[i]);
+        }
+
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return execute(interpreter, new Environment(closure, prototype.slotCount));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, a);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, a);
+        environment.define(1, b);
+        return execute(interpreter, environment);
+    }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, a);
+        environment.define(1, b);
+        environment.define(2, c);
+        return execute(interpreter, environment);
+    }
+
+    // Methods keep 'this' in slot 0 of their own frame, followed by the parameters
+    public Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, receiver);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(i + 1, arguments[i]);
         }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+        return execute(interpreter, environment);
+    }
+
+    public Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, receiver);
+        return execute(interpreter, environment);
+    }
+
+    public Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, receiver);
+        environment.define(1, a);
+        return execute(interpreter, environment);
+    }
+
+    public Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a, Object b) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, receiver);
+        environment.define(1, a);
+        environment.define(2, b);
+        return execute(interpreter, environment);
+    }
+
+    public Object invoke3(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c) {
+        Environment environment = new Environment(closure, prototype.slotCount);
+        environment.define(0, receiver);
+        environment.define(1, a);
+        environment.define(2, b);
+        environment.define(3, c);
+        return execute(interpreter, environment);
+    }
+
+    // Runs the body, then keeps running whatever tail calls it returns with in this same
+    // Java frame. Closures never hold on to a frame, so a function calling itself reuses its own.
+    // The result is the last function's: 'return this.init()' returns the instance
+    protected Object execute(Interpreter interpreter, Environment environment) {
+        Environment frame = environment;
+        LoxFunction function = this;
+        shareParameters(frame);
+        Completion completion = run(interpreter, frame);
+
+        while (completion == Completion.RETURN && interpreter.tailFunction != null) {
+            LoxFunction next = interpreter.tailFunction;
+            LoxInstance receiver = interpreter.tailReceiver;
+            Object[] arguments = interpreter.tailArguments;
+            interpreter.tailFunction = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArguments = null;
+
+            if (next != function)
+                frame = new Environment(next.closure, next.prototype.slotCount);
+
+            int offset = 0;
+            if (receiver != null)
+                frame.define(offset++, receiver);
+
+            for (Object argument : arguments)
+                frame.define(offset++, argument);
+
+            function = next;
+            function.shareParameters(frame);
+            completion = function.run(interpreter, frame);
         }
 
-        if (isInitializer)
-            return closure.getAt(0, "this");
+        Object value = completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
+        return function.isInitializer ? frame.get(0) : value;
+    }
+
+    // Parameters that closures capture and the body assigns move into Cells
+    private void shareParameters(Environment frame) {
+        for (int slot : prototype.sharedParameters)
+            frame.define(slot, new Cell(frame.get(slot)));
+    }
+
+    protected Completion run(Interpreter interpreter, Environment environment) {
+        if (prototype.profile != null)
+            return prototype.profile.run(this, interpreter, environment);
+
+        return interpreter.executeBlock(prototype.body, environment);
+    }
+
+    // The code the JIT tier compiled the function to, or null while it runs interpreted
+    public CompiledCode compiledCode() {
+        return prototype.profile != null ? prototype.profile.code() : null;
+    }
+
+    // Whether the JIT tier may still compile the function
+    public boolean isWarmingUp() {
+        return prototype.profile != null && prototype.profile.isWarmingUp();
+    }
+
+    public boolean isDeclaredBy(FunctionStatement statement) {
+        return prototype == statement.prototype;
+    }
 
-        return null;
+    // Functions made from the same declaration differ only in their closure
+    public boolean isSameDeclaration(LoxFunction function) {
+        return prototype == function.prototype;
     }
 
     @Override
     public int arity() {
-        return declaration.parameters.size();
+        return prototype.arity();
     }
 
     @Override
     public String toString() {
-        return "<function " + declaration.token.lexeme + ">";
+        return "<function " + prototype.name + ">";
     }
 
-    public LoxFunction bind(LoxInstance loxInstance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", loxInstance);
-        return new LoxFunction(declaration, environment, isInitializer);
+    public LoxCallable bind(LoxInstance loxInstance) {
+        return new BoundMethod(this, loxInstance);
     }
 }
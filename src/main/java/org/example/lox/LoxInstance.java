@@ -1,19 +1,27 @@
 package org.example.lox;
 
-import lombok.AllArgsConstructor;
 import org.example.lox.exception.RuntimeError;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
-@AllArgsConstructor
 public class LoxInstance {
-    private LoxClass clazz;
-    private final Map<String, Object> fields = new HashMap<>();
+    // Class objects are instances without a class; their own fields (class methods) hang off this root
+    private static final Shape CLASS_SHAPE = new Shape();
+
+    final LoxClass clazz;
+    Shape shape;
+    Object[] values;
+
+    public LoxInstance(LoxClass clazz) {
+        this.clazz = clazz;
+        this.shape = clazz == null ? CLASS_SHAPE : clazz.instanceShape;
+        this.values = shape.newStorage();
+    }
 
     public Object get(Token token) {
-        if (fields.containsKey(token.lexeme))
-            return fields.get(token.lexeme);
+        int index = shape.indexOf(token.lexeme);
+        if (index != -1)
+            return values[index];
 
         if (clazz != null) {
             LoxFunction method = clazz.findMethod(token.lexeme);
@@ -29,6 +37,18 @@ public class LoxInstance {
     }
 
     public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int index = shape.indexOf(name.lexeme);
+        if (index == -1) {
+            shape = shape.withField(name.lexeme);
+            index = shape.size() - 1;
+            ensureCapacity(shape.size());
+        }
+
+        values[index] = value;
+    }
+
+    void ensureCapacity(int size) {
+        if (values.length < size)
+            values = Arrays.copyOf(values, Math.max(size, values.length * 2));
     }
 }
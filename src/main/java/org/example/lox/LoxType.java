@@ -0,0 +1,19 @@
+package org.example.lox;
+
+// What the TypeInference proved about the values an expression evaluates to, when it evaluates
+// to anything. UNKNOWN is anything at all, so two different types join to it
+public enum LoxType {
+    NUMBER, STRING, BOOLEAN, NIL, UNKNOWN;
+
+    public LoxType join(LoxType other) {
+        return this == other ? this : UNKNOWN;
+    }
+
+    public static LoxType of(Object value) {
+        if (value == null) return NIL;
+        if (value instanceof Double) return NUMBER;
+        if (value instanceof Boolean) return BOOLEAN;
+        if (Rope.isString(value)) return STRING;
+        return UNKNOWN;
+    }
+}
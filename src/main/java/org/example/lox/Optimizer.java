@@ -0,0 +1,383 @@
+package org.example.lox;
+
+import org.example.lox.ast.Visitor;
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+import org.example.lox.exception.RuntimeError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs after the Resolver: folds constant subexpressions, replaces reads of locals that are
+// never reassigned with their literal value and drops branches with constant conditions.
+// Statement lists are rewritten in place; expression nodes are immutable, so a changed
+// subtree is rebuilt with the resolver's annotations copied over
+public class Optimizer implements Visitor<Object> {
+    // Folding evaluates literal operands with the interpreter itself, so the results always agree
+    private final Interpreter evaluator = new Interpreter();
+    private final Map<VariableStatement, Object> constants = new HashMap<>();
+    // Functions, lambdas and blocks with an Environment of their own, innermost first
+    private final Deque<Object> frames = new ArrayDeque<>();
+
+    public void optimize(List<Statement> statements) {
+        optimizeAll(statements);
+    }
+
+    @Override
+    public Object visitUnaryExpression(UnaryExpression unaryExpression) {
+        Expression right = optimize(unaryExpression.right);
+        UnaryExpression result = right == unaryExpression.right
+                ? unaryExpression
+                : new UnaryExpression(unaryExpression.operator, right);
+
+        if (right instanceof LiteralExpression)
+            return fold(result);
+
+        return result;
+    }
+
+    @Override
+    public Object visitBinaryExpression(BinaryExpression binaryExpression) {
+        Expression left = optimize(binaryExpression.left);
+        Expression right = optimize(binaryExpression.right);
+        BinaryExpression result = left == binaryExpression.left && right == binaryExpression.right
+                ? binaryExpression
+                : new BinaryExpression(left, binaryExpression.operator, right);
+
+        if (left instanceof LiteralExpression && right instanceof LiteralExpression)
+            return fold(result);
+
+        return result;
+    }
+
+    @Override
+    public Object visitGroupingExpression(GroupingExpression groupingExpression) {
+        return optimize(groupingExpression.expression);
+    }
+
+    @Override
+    public Object visitLiteralExpression(LiteralExpression literalExpression) {
+        return literalExpression;
+    }
+
+    @Override
+    public Object visitVariableExpression(VariableExpression variableExpression) {
+        VariableStatement declaration = variableExpression.declaration;
+        if (declaration != null && constants.containsKey(declaration))
+            return literal(constants.get(declaration));
+
+        return variableExpression;
+    }
+
+    @Override
+    public Object visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+        Expression expression = optimize(assignmentExpression.expression);
+        if (expression == assignmentExpression.expression)
+            return assignmentExpression;
+
+        AssignmentExpression result = new AssignmentExpression(assignmentExpression.token, expression);
+        result.depth = assignmentExpression.depth;
+        result.slot = assignmentExpression.slot;
+        result.shared = assignmentExpression.shared;
+        return result;
+    }
+
+    @Override
+    public Object visitLogicalExpression(LogicalExpression logicalExpression) {
+        Expression left = optimize(logicalExpression.left);
+        Expression right = optimize(logicalExpression.right);
+
+        if (left instanceof LiteralExpression literal) {
+            boolean isTrue = Interpreter.isTrue(literal.value);
+            boolean shortCircuits = logicalExpression.operator.type == TokenType.OR ? isTrue : !isTrue;
+            return shortCircuits ? left : right;
+        }
+
+        if (left == logicalExpression.left && right == logicalExpression.right)
+            return logicalExpression;
+
+        return new LogicalExpression(left, logicalExpression.operator, right);
+    }
+
+    @Override
+    public Object visitCallExpression(CallExpression callExpression) {
+        Expression callee = optimize(callExpression.callee);
+        List<Expression> arguments = callExpression.arguments;
+        for (int i = 0; i < arguments.size(); i++)
+            arguments.set(i, optimize(arguments.get(i)));
+
+        if (callee == callExpression.callee)
+            return callExpression;
+
+        return new CallExpression(callee, callExpression.rightParenthesis, arguments);
+    }
+
+    @Override
+    public Object visitGetExpression(GetExpression getExpression) {
+        Expression object = optimize(getExpression.object);
+        if (object == getExpression.object)
+            return getExpression;
+
+        GetExpression result = new GetExpression(object, getExpression.name);
+        result.cache = getExpression.cache;
+        return result;
+    }
+
+    @Override
+    public Object visitSetExpression(SetExpression setExpression) {
+        Expression object = optimize(setExpression.object);
+        Expression value = optimize(setExpression.value);
+        if (object == setExpression.object && value == setExpression.value)
+            return setExpression;
+
+        SetExpression result = new SetExpression(object, setExpression.name, value);
+        result.cache = setExpression.cache;
+        return result;
+    }
+
+    @Override
+    public Object visitThisExpression(ThisExpression thisExpression) {
+        return thisExpression;
+    }
+
+    @Override
+    public Object visitSuperExpression(SuperExpression superExpression) {
+        return superExpression;
+    }
+
+    @Override
+    public Object visitLambdaExpression(LambdaExpression lambdaExpression) {
+        pushFrame(lambdaExpression);
+        try {
+            optimizeAll(lambdaExpression.body);
+        } finally {
+            popFrame();
+        }
+
+        return lambdaExpression;
+    }
+
+    @Override
+    public Object visitInvariantExpression(InvariantExpression invariantExpression) {
+        return invariantExpression;
+    }
+
+    @Override
+    public Object visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        return inlinedCallExpression;
+    }
+
+    @Override
+    public Object visitExpressionStatement(ExpressionStatement expressionStatement) {
+        Expression expression = optimize(expressionStatement.expression);
+        if (expression == expressionStatement.expression)
+            return expressionStatement;
+
+        return new ExpressionStatement(expression);
+    }
+
+    @Override
+    public Object visitPrintStatement(PrintStatement printStatement) {
+        Expression expression = optimize(printStatement.expression);
+        if (expression == printStatement.expression)
+            return printStatement;
+
+        return new PrintStatement(expression);
+    }
+
+    @Override
+    public Object visitVariableStatement(VariableStatement variableStatement) {
+        Expression expression = variableStatement.expression != null
+                ? optimize(variableStatement.expression)
+                : null;
+
+        // Only locals are linked to their declarations, globals can be redefined at any time
+        if (variableStatement.slot != -1 && variableStatement.assignmentCount == 0) {
+            if (expression == null)
+                constants.put(variableStatement, null);
+            else if (expression instanceof LiteralExpression literal)
+                constants.put(variableStatement, literal.value);
+        }
+
+        if (expression == variableStatement.expression)
+            return variableStatement;
+
+        VariableStatement result = new VariableStatement(variableStatement.token, expression);
+        result.slot = variableStatement.slot;
+        result.assignmentCount = variableStatement.assignmentCount;
+        result.shared = variableStatement.shared;
+        return result;
+    }
+
+    @Override
+    public Object visitBlockStatement(BlockStatement blockStatement) {
+        if (!blockStatement.allocatesEnvironment) {
+            optimizeAll(blockStatement.statements);
+            return blockStatement;
+        }
+
+        pushFrame(blockStatement);
+        try {
+            optimizeAll(blockStatement.statements);
+        } finally {
+            popFrame();
+        }
+
+        return blockStatement;
+    }
+
+    @Override
+    public Object visitIfStatement(IfStatement ifStatement) {
+        Expression condition = optimize(ifStatement.condition);
+
+        if (condition instanceof LiteralExpression literal) {
+            if (Interpreter.isTrue(literal.value))
+                return optimize(ifStatement.thenBranch);
+
+            return ifStatement.elseBranch != null ? optimize(ifStatement.elseBranch) : null;
+        }
+
+        Statement thenBranch = optimizeBody(ifStatement.thenBranch);
+        Statement elseBranch = ifStatement.elseBranch != null ? optimize(ifStatement.elseBranch) : null;
+        return new IfStatement(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Object visitWhileStatement(WhileStatement whileStatement) {
+        Expression condition = optimize(whileStatement.condition);
+        if (condition instanceof LiteralExpression literal && !Interpreter.isTrue(literal.value))
+            return null;
+
+        Statement body = optimizeBody(whileStatement.body);
+        Expression increment = whileStatement.increment != null ? optimize(whileStatement.increment) : null;
+        return new WhileStatement(condition, body, increment);
+    }
+
+    @Override
+    public Object visitBreakStatement(BreakStatement breakStatement) {
+        return breakStatement;
+    }
+
+    @Override
+    public Object visitContinueStatement(ContinueStatement continueStatement) {
+        return continueStatement;
+    }
+
+    @Override
+    public Object visitFunctionStatement(FunctionStatement functionStatement) {
+        optimizeFunction(functionStatement);
+        return functionStatement;
+    }
+
+    @Override
+    public Object visitReturnStatement(ReturnStatement returnStatement) {
+        if (returnStatement.value == null)
+            return returnStatement;
+
+        Expression value = optimize(returnStatement.value);
+        if (value == returnStatement.value)
+            return returnStatement;
+
+        return new ReturnStatement(returnStatement.keyword, value);
+    }
+
+    @Override
+    public Object visitClassStatement(ClassStatement classStatement) {
+        for (FunctionStatement method : classStatement.methods)
+            optimizeFunction(method);
+
+        for (FunctionStatement method : classStatement.classMethods)
+            optimizeFunction(method);
+
+        return classStatement;
+    }
+
+    // Operations that would fail at runtime stay in the tree, so the error is still
+    // reported when (and if) the expression actually runs
+    private Expression fold(Expression expression) {
+        try {
+            return literal(expression.accept(evaluator));
+        } catch (RuntimeError error) {
+            return expression;
+        }
+    }
+
+    private static LiteralExpression literal(Object value) {
+        if (value == null) return new LiteralExpression(null, TokenType.NIL);
+        if (value instanceof Boolean bool) return new LiteralExpression(bool, bool ? TokenType.TRUE : TokenType.FALSE);
+        if (value instanceof Double) return new LiteralExpression(value, TokenType.NUMBER);
+        // A folded concatenation may be a Rope, literals hold its text
+        return new LiteralExpression(value.toString(), TokenType.STRING);
+    }
+
+    protected void optimizeFunction(FunctionStatement functionStatement) {
+        pushFrame(functionStatement);
+        try {
+            optimizeAll(functionStatement.body);
+        } finally {
+            popFrame();
+        }
+    }
+
+    protected void pushFrame(Object frame) {
+        frames.push(frame);
+    }
+
+    protected void popFrame() {
+        frames.pop();
+    }
+
+    // The Environment the code being optimized runs in, null in the globals, which have no slots
+    protected Object currentFrame() {
+        return frames.peek();
+    }
+
+    protected static int slotCount(Object frame) {
+        if (frame instanceof BlockStatement block) return block.slotCount;
+        if (frame instanceof FunctionStatement function) return function.slotCount;
+        return ((LambdaExpression) frame).slotCount;
+    }
+
+    // Adds slots at the end of a frame and returns the first of them
+    protected static int allocateSlots(Object frame, int count) {
+        int slot = slotCount(frame);
+
+        if (frame instanceof BlockStatement block)
+            block.slotCount += count;
+        else if (frame instanceof FunctionStatement function)
+            function.slotCount += count;
+        else
+            ((LambdaExpression) frame).slotCount += count;
+
+        return slot;
+    }
+
+    protected void optimizeAll(List<Statement> statements) {
+        List<Statement> optimized = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            Statement result = optimize(statement);
+            if (result != null) optimized.add(result);
+        }
+
+        statements.clear();
+        statements.addAll(optimized);
+    }
+
+    // A statement that has to stay a statement, such as a loop body, becomes an empty block when pruned
+    protected Statement optimizeBody(Statement statement) {
+        Statement result = optimize(statement);
+        return result != null ? result : new BlockStatement(new ArrayList<>());
+    }
+
+    protected Expression optimize(Expression expression) {
+        return (Expression) expression.accept(this);
+    }
+
+    protected Statement optimize(Statement statement) {
+        return (Statement) statement.accept(this);
+    }
+}
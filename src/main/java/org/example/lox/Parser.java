@@ -165,16 +165,13 @@ public class Parser {
         Statement body = parseStatement();
         decrementLoopCount();
 
-        if (increment != null)
-            body = new BlockStatement(List.of(body, new ExpressionStatement(increment)));
-
         if (condition == null)
             condition = new LiteralExpression(true, TokenType.TRUE);
 
         body = new WhileStatement(condition, body, increment);
 
         if (initializer != null)
-            body = new BlockStatement(List.of(initializer, body));
+            body = new BlockStatement(new ArrayList<>(List.of(initializer, body)));
 
         return body;
     }
@@ -0,0 +1,146 @@
+package org.example.lox;
+
+import org.example.lox.exception.RuntimeError;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public class PropertyCache {
+    private static final int POLYMORPHIC_LIMIT = 4;
+    private static final List<PropertyCache> sites = new ArrayList<>();
+    private static boolean recordSites = false;
+
+    private final Token name;
+
+    // Entry i: receivers with shapes[i] find the field at indices[i], or
+    // resolve to methods[i] when the index is -1. Set sites store the shape
+    // the instance moves to in transitions[i]
+    private final Shape[] shapes = new Shape[POLYMORPHIC_LIMIT];
+    private final int[] indices = new int[POLYMORPHIC_LIMIT];
+    private final LoxFunction[] methods = new LoxFunction[POLYMORPHIC_LIMIT];
+    private final Shape[] transitions = new Shape[POLYMORPHIC_LIMIT];
+    private int size = 0;
+    private boolean megamorphic = false;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    public PropertyCache(Token name) {
+        this.name = name;
+        if (recordSites) sites.add(this);
+    }
+
+    public Object get(LoxInstance instance) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                hits++;
+                int index = indices[i];
+                return index != -1 ? instance.values[index] : methods[i].bind(instance);
+            }
+        }
+
+        misses++;
+        int index = shape.indexOf(name.lexeme);
+        if (index != -1) {
+            remember(shape, index, null, null);
+            return instance.values[index];
+        }
+
+        // Shapes are rooted per class, so a shape also pins down the method it resolves to
+        if (instance.clazz != null) {
+            LoxFunction method = instance.clazz.findMethod(name.lexeme);
+            if (method != null) {
+                remember(shape, -1, method, null);
+                return method.bind(instance);
+            }
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'");
+    }
+
+    // Resolves the property for a call site. Returns null when it is a field, so the
+    // caller falls back to get() and calls whatever value the field holds
+    public LoxFunction lookUpMethod(LoxInstance instance) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                hits++;
+                return methods[i];
+            }
+        }
+
+        misses++;
+        int index = shape.indexOf(name.lexeme);
+        if (index != -1) {
+            remember(shape, index, null, null);
+            return null;
+        }
+
+        LoxFunction method = instance.clazz == null ? null : instance.clazz.findMethod(name.lexeme);
+        if (method != null)
+            remember(shape, -1, method, null);
+
+        return method;
+    }
+
+    public void set(LoxInstance instance, Object value) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                hits++;
+                Shape transition = transitions[i];
+                if (transition != shape) {
+                    instance.shape = transition;
+                    instance.ensureCapacity(transition.size());
+                }
+
+                instance.values[indices[i]] = value;
+                return;
+            }
+        }
+
+        misses++;
+        instance.set(name, value);
+        remember(shape, instance.shape.indexOf(name.lexeme), null, instance.shape);
+    }
+
+    private void remember(Shape shape, int index, LoxFunction method, Shape transition) {
+        if (size == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            return;
+        }
+
+        shapes[size] = shape;
+        indices[size] = index;
+        methods[size] = method;
+        transitions[size] = transition;
+        size++;
+    }
+
+    public String getState() {
+        if (megamorphic) return "megamorphic";
+
+        return switch (size) {
+            case 0 -> "uninitialized";
+            case 1 -> "monomorphic";
+            default -> "polymorphic";
+        };
+    }
+
+    public static void recordSites() {
+        recordSites = true;
+    }
+
+    public static void printStatistics(PrintStream out) {
+        sites.sort(Comparator.comparingInt(site -> site.name.line));
+        for (PropertyCache site : sites) {
+            if (site.hits == 0 && site.misses == 0) continue;
+
+            out.println("[line " + site.name.line + "] ." + site.name.lexeme + ": " + site.getState()
+                    + ", " + site.hits + " hits, " + site.misses + " misses");
+        }
+    }
+}
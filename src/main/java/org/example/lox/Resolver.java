@@ -5,18 +5,29 @@ import org.example.lox.ast.Visitor;
 import org.example.lox.ast.expression.*;
 import org.example.lox.ast.statement.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
-@RequiredArgsConstructor
+// Besides binding names, lays out the frames. Only functions, the scope holding 'super' and blocks
+// at the top level get an Environment at runtime; other blocks keep their variables in slots of
+// the enclosing frame. Closures are flat: a function captures the variables of enclosing functions
+// it uses when it is created, either their values or, for variables that can still change, the
+// Cells holding them. Which variables need a Cell, and how many slots a frame needs, is only known
+// once everything has been resolved, so slots and depths are filled in at the end
 public class Resolver implements Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final GlobalEnvironment globals;
+    private Scope scope = null;
+    private final List<Scope> roots = new ArrayList<>();
+    private final List<Runnable> fixUps = new ArrayList<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
+    public Resolver(GlobalEnvironment globals) {
+        this.globals = globals;
+    }
+
     @Override
     public Void visitUnaryExpression(UnaryExpression unaryExpression) {
         resolve(unaryExpression.right);
@@ -43,17 +54,46 @@ public class Resolver implements Visitor<Void> {
 
     @Override
     public Void visitVariableExpression(VariableExpression variableExpression) {
-        if (!scopes.empty() && scopes.peek().get(variableExpression.token.lexeme) == Boolean.FALSE)
-            Lox.error(variableExpression.token, "Undefined variable");
+        if (scope != null) {
+            Variable variable = scope.variables.get(variableExpression.token.lexeme);
+            if (variable != null && !variable.defined)
+                Lox.error(variableExpression.token, "Undefined variable");
+        }
+
+        Location location = resolveLocal(variableExpression.token.lexeme);
+        if (location != null) {
+            variableExpression.declaration = location.variable.declaration;
+            fixUps.add(() -> {
+                variableExpression.depth = location.depth;
+                variableExpression.slot = location.slot();
+                variableExpression.shared = location.variable.isShared();
+            });
+        } else {
+            variableExpression.slot = globals.indexOf(variableExpression.token.lexeme);
+        }
 
-        resolveLocal(variableExpression, variableExpression.token);
         return null;
     }
 
     @Override
     public Void visitAssignmentExpression(AssignmentExpression assignmentExpression) {
         resolve(assignmentExpression.expression);
-        resolveLocal(assignmentExpression, assignmentExpression.token);
+        Location location = resolveLocal(assignmentExpression.token.lexeme);
+        if (location != null) {
+            Variable variable = location.variable;
+            variable.assigned = true;
+            if (variable.declaration != null)
+                variable.declaration.assignmentCount++;
+
+            fixUps.add(() -> {
+                assignmentExpression.depth = location.depth;
+                assignmentExpression.slot = location.slot();
+                assignmentExpression.shared = variable.isShared();
+            });
+        } else {
+            assignmentExpression.slot = globals.indexOf(assignmentExpression.token.lexeme);
+        }
+
         return null;
     }
 
@@ -77,6 +117,7 @@ public class Resolver implements Visitor<Void> {
     @Override
     public Void visitGetExpression(GetExpression getExpression) {
         resolve(getExpression.object);
+        getExpression.cache = new PropertyCache(getExpression.name);
         return null;
     }
 
@@ -84,6 +125,7 @@ public class Resolver implements Visitor<Void> {
     public Void visitSetExpression(SetExpression setExpression) {
         resolve(setExpression.value);
         resolve(setExpression.object);
+        setExpression.cache = new PropertyCache(setExpression.name);
         return null;
     }
 
@@ -99,7 +141,14 @@ public class Resolver implements Visitor<Void> {
             return null;
         }
 
-        resolveLocal(thisExpression, thisExpression.keyword);
+        Location location = resolveLocal("this");
+        if (location != null) {
+            fixUps.add(() -> {
+                thisExpression.depth = location.depth;
+                thisExpression.slot = location.slot();
+            });
+        }
+
         return null;
     }
 
@@ -110,7 +159,23 @@ public class Resolver implements Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) {
             Lox.error(superExpression.keyword, "Can't use 'super' in class without superclass");
         }
-        resolveLocal(superExpression, superExpression.keyword);
+        Location location = resolveLocal("super");
+        if (location != null) {
+            fixUps.add(() -> {
+                superExpression.depth = location.depth;
+                superExpression.slot = location.slot();
+            });
+        }
+
+        // The method is bound to the 'this' of the method the expression is in
+        Location receiver = resolveLocal("this");
+        if (receiver != null) {
+            fixUps.add(() -> {
+                superExpression.thisDepth = receiver.depth;
+                superExpression.thisSlot = receiver.slot();
+            });
+        }
+
         return null;
     }
 
@@ -120,6 +185,18 @@ public class Resolver implements Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitInvariantExpression(InvariantExpression invariantExpression) {
+        resolve(invariantExpression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        resolve(inlinedCallExpression.call);
+        return null;
+    }
+
     @Override
     public Void visitExpressionStatement(ExpressionStatement expressionStatement) {
         resolve(expressionStatement.expression);
@@ -134,19 +211,32 @@ public class Resolver implements Visitor<Void> {
 
     @Override
     public Void visitVariableStatement(VariableStatement variableStatement) {
-        declare(variableStatement.token);
+        Variable variable = declare(variableStatement.token);
+        if (variable != null) {
+            variable.declaration = variableStatement;
+            fixUps.add(() -> {
+                variableStatement.slot = variable.slot;
+                variableStatement.shared = variable.isShared();
+            });
+        }
+
         if (variableStatement.expression != null)
             resolve(variableStatement.expression);
 
         define(variableStatement.token);
+        initialize(variable);
         return null;
     }
 
     @Override
     public Void visitBlockStatement(BlockStatement blockStatement) {
-        beginScope();
-        resolve(blockStatement.statements);
+        Scope block = beginScope(ScopeType.BLOCK);
+        resolveAll(blockStatement.statements);
         endScope();
+
+        blockStatement.allocatesEnvironment = block.frame == block;
+        fixUps.add(() -> blockStatement.slotCount = block.frame == block ? block.size : 0);
+
         return null;
     }
 
@@ -164,6 +254,9 @@ public class Resolver implements Visitor<Void> {
     public Void visitWhileStatement(WhileStatement whileStatement) {
         resolve(whileStatement.condition);
         resolve(whileStatement.body);
+        if (whileStatement.increment != null)
+            resolve(whileStatement.increment);
+
         return null;
     }
 
@@ -179,9 +272,17 @@ public class Resolver implements Visitor<Void> {
 
     @Override
     public Void visitFunctionStatement(FunctionStatement functionStatement) {
-        declare(functionStatement.token);
+        Variable variable = declare(functionStatement.token);
+        if (variable != null) {
+            fixUps.add(() -> {
+                functionStatement.slot = variable.slot;
+                functionStatement.shared = variable.isShared();
+            });
+        }
+
         define(functionStatement.token);
         resolveFunction(functionStatement, FunctionType.FUNCTION);
+        initialize(variable);
         return null;
     }
 
@@ -205,7 +306,14 @@ public class Resolver implements Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(classStatement.name);
+        Variable variable = declare(classStatement.name);
+        if (variable != null) {
+            fixUps.add(() -> {
+                classStatement.slot = variable.slot;
+                classStatement.shared = variable.isShared();
+            });
+        }
+
         define(classStatement.name);
 
         if (classStatement.superclass != null) {
@@ -216,13 +324,11 @@ public class Resolver implements Visitor<Void> {
 
             resolve(classStatement.superclass);
 
-            beginScope();
-            scopes.peek().put("super", true);
+            // Holds the superclass in an Environment of its own, the methods capture it from there
+            beginScope(ScopeType.SUPER);
+            declareDefined("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (FunctionStatement method : classStatement.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.token.lexeme.equals("init"))
@@ -234,25 +340,43 @@ public class Resolver implements Visitor<Void> {
         for (FunctionStatement method : classStatement.classMethods)
             resolveFunction(method, FunctionType.CLASS_METHOD);
 
-        endScope();
-
         if (classStatement.superclass != null)
             endScope();
 
+        initialize(variable);
         currentClass = enclosingClass;
 
         return null;
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<>());
+    private Scope beginScope(ScopeType type) {
+        scope = new Scope(scope, type);
+        if (scope.parent == null)
+            roots.add(scope);
+        else
+            scope.parent.children.add(scope);
+
+        return scope;
     }
 
     private void endScope() {
-        scopes.pop();
+        scope = scope.parent;
     }
 
     public void resolve(List<Statement> statements) {
+        resolveAll(statements);
+
+        for (Scope root : roots)
+            root.layOut();
+
+        for (Runnable fixUp : fixUps)
+            fixUp.run();
+
+        roots.clear();
+        fixUps.clear();
+    }
+
+    private void resolveAll(List<Statement> statements) {
         for (Statement statement : statements)
             resolve(statement);
     }
@@ -265,28 +389,63 @@ public class Resolver implements Visitor<Void> {
         expression.accept(this);
     }
 
-    private void resolveLocal(Expression expression, Token token) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(token.lexeme)) {
-                interpreter.resolve(expression, scopes.size() - 1 - i);
-                return;
-            }
+    private Location resolveLocal(String name) {
+        for (Scope current = scope; current != null; current = current.parent) {
+            Variable variable = current.variables.get(name);
+            if (variable != null)
+                return locate(scope, variable);
+        }
+
+        return null;
+    }
+
+    // Walks the Environments reachable from the frame at 'from' at runtime. A variable declared
+    // outside of the innermost function on the way is taken from that function's closure
+    private Location locate(Scope from, Variable variable) {
+        int depth = 0;
+        for (Scope frame = from.frame; ; frame = frame.parent.frame, depth++) {
+            if (variable.scope.frame == frame)
+                return new Location(depth, variable, -1);
+
+            if (frame.type == ScopeType.FUNCTION)
+                return new Location(depth + 1, variable, capture(frame, variable));
         }
     }
 
+    // Functions in between capture the variable too, so each one can pass it on to the next
+    private int capture(Scope function, Variable variable) {
+        Integer index = function.captureIndices.get(variable);
+        if (index != null)
+            return index;
+
+        variable.captured = true;
+        if (!variable.initialized)
+            variable.capturedEarly = true;
+
+        index = function.captures.size();
+        function.captureIndices.put(variable, index);
+        function.captures.add(locate(function.parent, variable));
+        return index;
+    }
+
     private void resolveFunction(FunctionStatement functionStatement, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
-        beginScope();
-        for (Token parameter : functionStatement.parameters) {
-            declare(parameter);
-            define(parameter);
-        }
+        Scope frame = beginScope(ScopeType.FUNCTION);
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER)
+            declareDefined("this");
 
-        resolve(functionStatement.body);
+        List<Variable> parameters = declareParameters(functionStatement.parameters);
+        resolveAll(functionStatement.body);
         endScope();
 
+        fixUps.add(() -> {
+            functionStatement.slotCount = frame.size;
+            functionStatement.captures = frame.captures();
+            functionStatement.sharedParameters = sharedSlots(parameters);
+        });
+
         currentFunction = enclosingFunction;
     }
 
@@ -294,34 +453,166 @@ public class Resolver implements Visitor<Void> {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
-        beginScope();
-        for (Token parameter : lambdaExpression.parameters) {
-            declare(parameter);
+        Scope frame = beginScope(ScopeType.FUNCTION);
+        List<Variable> parameters = declareParameters(lambdaExpression.parameters);
+        resolveAll(lambdaExpression.body);
+        endScope();
+
+        fixUps.add(() -> {
+            lambdaExpression.slotCount = frame.size;
+            lambdaExpression.captures = frame.captures();
+            lambdaExpression.sharedParameters = sharedSlots(parameters);
+        });
+
+        currentFunction = enclosingFunction;
+    }
+
+    private List<Variable> declareParameters(List<Token> parameters) {
+        List<Variable> variables = new ArrayList<>(parameters.size());
+        for (Token parameter : parameters) {
+            Variable variable = declare(parameter);
             define(parameter);
+            variable.initialized = true;
+            variables.add(variable);
         }
 
-        resolve(lambdaExpression.body);
-        endScope();
+        return variables;
+    }
 
-        currentFunction = enclosingFunction;
+    private static List<Integer> sharedSlots(List<Variable> variables) {
+        List<Integer> slots = new ArrayList<>();
+        for (Variable variable : variables) {
+            if (variable.isShared())
+                slots.add(variable.slot);
+        }
+
+        return slots;
     }
 
-    private void declare(Token token) {
-        if (scopes.empty())
-            return;
+    private Variable declare(Token token) {
+        if (scope == null)
+            return null;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(token.lexeme))
+        Variable variable = scope.variables.get(token.lexeme);
+        if (variable != null) {
             Lox.error(token, "Variable already declared in this scope");
+            return variable;
+        }
+
+        return scope.declare(token.lexeme);
+    }
+
+    private void declareDefined(String name) {
+        Variable variable = scope.declare(name);
+        variable.defined = true;
+        variable.initialized = true;
+    }
 
-        scope.put(token.lexeme, false);
+    private static void initialize(Variable variable) {
+        if (variable != null)
+            variable.initialized = true;
     }
 
     private void define(Token token) {
-        if (scopes.empty())
+        if (scope == null)
             return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        scope.put(token.lexeme, true);
+        scope.variables.get(token.lexeme).defined = true;
+    }
+
+    private enum ScopeType {
+        FUNCTION,
+        SUPER,
+        BLOCK
+    }
+
+    private static class Scope {
+        final Scope parent;
+        final ScopeType type;
+        // The scope whose Environment holds this scope's variables
+        final Scope frame;
+        final Map<String, Variable> variables = new HashMap<>();
+        final List<Variable> declarations = new ArrayList<>();
+        final List<Scope> children = new ArrayList<>();
+
+        // Free variables of a function, in the order its closure holds them
+        final Map<Variable, Integer> captureIndices = new HashMap<>();
+        final List<Location> captures = new ArrayList<>();
+
+        // Set by layOut for scopes with an Environment: how many slots it needs
+        int size = 0;
+        // Next free slot of a frame while its blocks are laid out
+        int next = 0;
+
+        // A block at the top level has no frame to move into
+        Scope(Scope parent, ScopeType type) {
+            this.parent = parent;
+            this.type = type;
+            this.frame = type != ScopeType.BLOCK || parent == null ? this : parent.frame;
+        }
+
+        Variable declare(String name) {
+            Variable variable = new Variable(this);
+            variables.put(name, variable);
+            declarations.add(variable);
+            return variable;
+        }
+
+        // A scope's own variables come first, in declaration order, so parameters keep their
+        // slots; blocks without an Environment follow, siblings sharing the same slots
+        void layOut() {
+            int next = frame == this ? 0 : frame.next;
+
+            for (Variable variable : declarations)
+                variable.slot = next++;
+
+            frame.size = Math.max(frame.size, next);
+            for (Scope child : children) {
+                frame.next = next;
+                child.layOut();
+            }
+        }
+
+        List<Capture> captures() {
+            List<Capture> result = new ArrayList<>(captures.size());
+            for (Location location : captures)
+                result.add(new Capture(location.depth, location.slot()));
+
+            return result;
+        }
+    }
+
+    private static class Variable {
+        final Scope scope;
+        int slot = -1;
+        boolean defined = false;
+        // Set once the declaration is complete; a closure created before that, say by a function
+        // calling itself, can't take the value yet
+        boolean initialized = false;
+        boolean assigned = false;
+        boolean captured = false;
+        boolean capturedEarly = false;
+        VariableStatement declaration = null;
+
+        Variable(Scope scope) {
+            this.scope = scope;
+        }
+
+        boolean isShared() {
+            return captured && (assigned || capturedEarly);
+        }
+    }
+
+    // A variable as seen from some scope: 'depth' Environments up, in the variable's own slot or,
+    // past a function's frame, at an index of that function's closure
+    @RequiredArgsConstructor
+    private static class Location {
+        final int depth;
+        final Variable variable;
+        final int capture;
+
+        int slot() {
+            return capture != -1 ? capture : variable.slot;
+        }
     }
 }
@@ -0,0 +1,67 @@
+package org.example.lox;
+
+// A Lox string built by concatenation. Building a string one piece at a time with plain Strings
+// copies everything built so far on every step; a Rope instead appends to a StringBuilder it
+// shares with the Rope it was made from. Only the Rope that ends where the builder ends may append
+// in place, concatenating to an older one copies its prefix into a builder of its own. The text is
+// turned into a String only when printed, compared or hashed
+public final class Rope {
+    // Shorter results are plain Strings, copying them costs less than a builder
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flattened;
+
+    private Rope(StringBuilder builder) {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    public static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    // Implements '+' for a string and a string or number, in either order
+    public static Object concatenate(Object left, Object right) {
+        String suffix = Interpreter.stringify(right);
+        if (left instanceof Rope rope)
+            return rope.append(suffix);
+
+        String prefix = Interpreter.stringify(left);
+        if (prefix.length() + suffix.length() < MIN_LENGTH)
+            return prefix.concat(suffix);
+
+        return new Rope(new StringBuilder(2 * (prefix.length() + suffix.length())).append(prefix).append(suffix));
+    }
+
+    private Rope append(String suffix) {
+        if (builder.length() == length)
+            return new Rope(builder.append(suffix));
+
+        StringBuilder copy = new StringBuilder(2 * (length + suffix.length())).append(builder, 0, length);
+        return new Rope(copy.append(suffix));
+    }
+
+    @Override
+    public String toString() {
+        if (flattened == null)
+            flattened = builder.substring(0, length);
+
+        return flattened;
+    }
+
+    // Equal to a String or Rope with the same text. String.equals does not know about Ropes, so
+    // comparisons that may see one on the right have to ask the Rope
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!isString(other)) return false;
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class Shape {
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private final Shape root;
+    private final Map<String, Integer> indices;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    // Only tracked on the root: the widest shape reached so far, so new
+    // instances get a storage array that already fits all their fields
+    private int expectedSize = 0;
+
+    public Shape() {
+        this.root = this;
+        this.indices = Map.of();
+    }
+
+    private Shape(Shape root, Map<String, Integer> indices) {
+        this.root = root;
+        this.indices = indices;
+    }
+
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public int size() {
+        return indices.size();
+    }
+
+    public Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next != null) return next;
+
+        Map<String, Integer> nextIndices = new HashMap<>(indices);
+        nextIndices.put(name, indices.size());
+        next = new Shape(root, nextIndices);
+        transitions.put(name, next);
+
+        root.expectedSize = Math.max(root.expectedSize, next.size());
+        return next;
+    }
+
+    public Object[] newStorage() {
+        return root.expectedSize == 0 ? NO_VALUES : new Object[root.expectedSize];
+    }
+}
@@ -0,0 +1,494 @@
+package org.example.lox;
+
+import org.example.lox.ast.Visitor;
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Runs last, after the LoopOptimizer, and sets the inferredType of every expression. It follows
+// the types of the locals in each frame through the statements in order, joining them where
+// control flow meets and iterating loops until the types at their head stop changing. Only locals
+// that no closure shares are followed: nothing but the frame's own code can assign them, so calls
+// leave them alone. Parameters, globals, captures, calls and properties are UNKNOWN. The
+// Interpreter skips the operand checks of arithmetic and comparisons on proven numbers, and the
+// dispatch of a '+' proven to concatenate strings
+public class TypeInference implements Visitor<LoxType> {
+    // Types of the locals of the frame being inferred by slot, a missing slot being UNKNOWN.
+    // Null while the code being inferred is unreachable
+    private Map<Integer, LoxType> locals = null;
+
+    private final Deque<Loop> loops = new ArrayDeque<>();
+    // Arithmetic and comparisons in source order, for the report
+    private final List<Expression> operations = new ArrayList<>();
+    private final Set<Expression> reported = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // Types at the break and continue statements of a loop, joined
+    private static class Loop {
+        Map<Integer, LoxType> breaks = null;
+        Map<Integer, LoxType> continues = null;
+    }
+
+    public void infer(List<Statement> statements) {
+        for (Statement statement : statements)
+            statement.accept(this);
+    }
+
+    // Each arithmetic and comparison with what its operands were proven to be, and for those that
+    // keep their checks, the operand that was not
+    public void printReport(PrintStream out) {
+        List<Expression> sorted = new ArrayList<>(operations);
+        sorted.sort(Comparator.comparingInt(TypeInference::line));
+
+        out.println("Inferred types: " + sorted.size() + " operations");
+        for (Expression operation : sorted)
+            out.println("  [line " + line(operation) + "] " + describe(operation) + ": " + verdict(operation));
+    }
+
+    private LoxType infer(Expression expression) {
+        LoxType type = expression.accept(this);
+        expression.inferredType = type;
+        return type;
+    }
+
+    private static Map<Integer, LoxType> copy(Map<Integer, LoxType> types) {
+        return types == null ? null : new HashMap<>(types);
+    }
+
+    private static Map<Integer, LoxType> join(Map<Integer, LoxType> left, Map<Integer, LoxType> right) {
+        if (left == null) return copy(right);
+        if (right == null) return copy(left);
+
+        Map<Integer, LoxType> joined = new HashMap<>();
+        for (Map.Entry<Integer, LoxType> entry : left.entrySet()) {
+            if (entry.getValue() == right.get(entry.getKey()))
+                joined.put(entry.getKey(), entry.getValue());
+        }
+
+        return joined;
+    }
+
+    private LoxType local(int slot) {
+        return locals == null ? LoxType.UNKNOWN : locals.getOrDefault(slot, LoxType.UNKNOWN);
+    }
+
+    private void define(int slot, boolean shared, LoxType type) {
+        if (locals == null || slot == -1) return;
+
+        if (shared || type == LoxType.UNKNOWN)
+            locals.remove(slot);
+        else
+            locals.put(slot, type);
+    }
+
+    // Functions, lambdas and methods start with nothing known about their frame
+    private void inferFunction(List<Statement> body) {
+        Map<Integer, LoxType> enclosing = locals;
+        Deque<Loop> enclosingLoops = new ArrayDeque<>(loops);
+        loops.clear();
+        locals = new HashMap<>();
+
+        infer(body);
+
+        locals = enclosing;
+        loops.addAll(enclosingLoops);
+    }
+
+    private void report(Expression operation) {
+        if (reported.add(operation))
+            operations.add(operation);
+    }
+
+    @Override
+    public LoxType visitUnaryExpression(UnaryExpression unaryExpression) {
+        infer(unaryExpression.right);
+        if (unaryExpression.operator.type == TokenType.EXCLAMATION_MARK)
+            return LoxType.BOOLEAN;
+
+        // Negation either fails or gives a number
+        report(unaryExpression);
+        return LoxType.NUMBER;
+    }
+
+    @Override
+    public LoxType visitBinaryExpression(BinaryExpression binaryExpression) {
+        LoxType left = infer(binaryExpression.left);
+        LoxType right = infer(binaryExpression.right);
+
+        switch (binaryExpression.operator.type) {
+            case PLUS -> {
+                report(binaryExpression);
+                if (left == LoxType.NUMBER && right == LoxType.NUMBER)
+                    return LoxType.NUMBER;
+
+                // What Interpreter.binary concatenates
+                if (left == LoxType.STRING && (right == LoxType.STRING || right == LoxType.NUMBER)
+                        || left == LoxType.NUMBER && right == LoxType.STRING)
+                    return LoxType.STRING;
+
+                return LoxType.UNKNOWN;
+            }
+
+            case MINUS, ASTERISK, SLASH -> {
+                report(binaryExpression);
+                return LoxType.NUMBER;
+            }
+
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                report(binaryExpression);
+                return LoxType.BOOLEAN;
+            }
+
+            default -> {
+                return LoxType.BOOLEAN;
+            }
+        }
+    }
+
+    @Override
+    public LoxType visitGroupingExpression(GroupingExpression groupingExpression) {
+        return infer(groupingExpression.expression);
+    }
+
+    @Override
+    public LoxType visitLiteralExpression(LiteralExpression literalExpression) {
+        return LoxType.of(literalExpression.value);
+    }
+
+    @Override
+    public LoxType visitVariableExpression(VariableExpression variableExpression) {
+        if (variableExpression.depth != 0 || variableExpression.shared)
+            return LoxType.UNKNOWN;
+
+        return local(variableExpression.slot);
+    }
+
+    @Override
+    public LoxType visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+        LoxType type = infer(assignmentExpression.expression);
+        if (assignmentExpression.depth == 0)
+            define(assignmentExpression.slot, assignmentExpression.shared, type);
+
+        return type;
+    }
+
+    @Override
+    public LoxType visitLogicalExpression(LogicalExpression logicalExpression) {
+        LoxType left = infer(logicalExpression.left);
+        Map<Integer, LoxType> skipped = copy(locals);
+        LoxType right = infer(logicalExpression.right);
+        locals = join(skipped, locals);
+        return left.join(right);
+    }
+
+    @Override
+    public LoxType visitCallExpression(CallExpression callExpression) {
+        infer(callExpression.callee);
+        for (Expression argument : callExpression.arguments)
+            infer(argument);
+
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitGetExpression(GetExpression getExpression) {
+        infer(getExpression.object);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitSetExpression(SetExpression setExpression) {
+        infer(setExpression.object);
+        return infer(setExpression.value);
+    }
+
+    @Override
+    public LoxType visitThisExpression(ThisExpression thisExpression) {
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitSuperExpression(SuperExpression superExpression) {
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitLambdaExpression(LambdaExpression lambdaExpression) {
+        inferFunction(lambdaExpression.body);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitInvariantExpression(InvariantExpression invariantExpression) {
+        return infer(invariantExpression.expression);
+    }
+
+    // An expression body runs in this frame with the arguments in the slots from inlined.slot on,
+    // but only while the callee is still the function inlined; otherwise the call goes out of line
+    @Override
+    public LoxType visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        CallExpression call = inlinedCallExpression.call;
+        boolean isMethod = call.callee instanceof GetExpression;
+        if (call.callee instanceof GetExpression getExpression)
+            infer(getExpression.object);
+        else
+            infer(call.callee);
+
+        List<LoxType> arguments = new ArrayList<>();
+        for (Expression argument : call.arguments)
+            arguments.add(infer(argument));
+
+        if (inlinedCallExpression.body == null)
+            return LoxType.UNKNOWN;
+
+        Map<Integer, LoxType> outOfLine = copy(locals);
+        int slot = inlinedCallExpression.slot;
+        if (isMethod)
+            define(slot++, false, LoxType.UNKNOWN);
+
+        for (LoxType argument : arguments)
+            define(slot++, false, argument);
+
+        infer(inlinedCallExpression.body);
+        locals = join(outOfLine, locals);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitExpressionStatement(ExpressionStatement expressionStatement) {
+        infer(expressionStatement.expression);
+        return null;
+    }
+
+    @Override
+    public LoxType visitPrintStatement(PrintStatement printStatement) {
+        infer(printStatement.expression);
+        return null;
+    }
+
+    @Override
+    public LoxType visitVariableStatement(VariableStatement variableStatement) {
+        LoxType type = variableStatement.expression != null ? infer(variableStatement.expression) : LoxType.NIL;
+        define(variableStatement.slot, variableStatement.shared, type);
+        return null;
+    }
+
+    // A top-level block has a frame of its own, which starts empty
+    @Override
+    public LoxType visitBlockStatement(BlockStatement blockStatement) {
+        if (!blockStatement.allocatesEnvironment) {
+            infer(blockStatement.statements);
+            return null;
+        }
+
+        Map<Integer, LoxType> enclosing = locals;
+        locals = new HashMap<>();
+        infer(blockStatement.statements);
+        locals = enclosing;
+        return null;
+    }
+
+    @Override
+    public LoxType visitIfStatement(IfStatement ifStatement) {
+        infer(ifStatement.condition);
+        Map<Integer, LoxType> otherwise = copy(locals);
+
+        ifStatement.thenBranch.accept(this);
+        Map<Integer, LoxType> then = locals;
+
+        locals = otherwise;
+        if (ifStatement.elseBranch != null)
+            ifStatement.elseBranch.accept(this);
+
+        locals = join(then, locals);
+        return null;
+    }
+
+    // The body is inferred again with the types at the loop's head joined with those at its end
+    // until they stop changing. A type can only change into UNKNOWN, so that takes a few rounds
+    @Override
+    public LoxType visitWhileStatement(WhileStatement whileStatement) {
+        Map<Integer, LoxType> head = copy(locals);
+
+        while (true) {
+            locals = copy(head);
+            infer(whileStatement.condition);
+            Map<Integer, LoxType> exit = copy(locals);
+
+            Loop loop = new Loop();
+            loops.push(loop);
+            whileStatement.body.accept(this);
+            loops.pop();
+
+            locals = join(locals, loop.continues);
+            if (locals != null && whileStatement.increment != null)
+                infer(whileStatement.increment);
+
+            Map<Integer, LoxType> next = join(head, locals);
+            if (next == null || next.equals(head)) {
+                locals = join(exit, loop.breaks);
+                return null;
+            }
+
+            head = next;
+        }
+    }
+
+    @Override
+    public LoxType visitBreakStatement(BreakStatement breakStatement) {
+        Loop loop = loops.peek();
+        loop.breaks = join(loop.breaks, locals);
+        locals = null;
+        return null;
+    }
+
+    @Override
+    public LoxType visitContinueStatement(ContinueStatement continueStatement) {
+        Loop loop = loops.peek();
+        loop.continues = join(loop.continues, locals);
+        locals = null;
+        return null;
+    }
+
+    @Override
+    public LoxType visitFunctionStatement(FunctionStatement functionStatement) {
+        define(functionStatement.slot, functionStatement.shared, LoxType.UNKNOWN);
+        inferFunction(functionStatement.body);
+        return null;
+    }
+
+    @Override
+    public LoxType visitReturnStatement(ReturnStatement returnStatement) {
+        if (returnStatement.value != null)
+            infer(returnStatement.value);
+
+        locals = null;
+        return null;
+    }
+
+    @Override
+    public LoxType visitClassStatement(ClassStatement classStatement) {
+        if (classStatement.superclass != null)
+            infer(classStatement.superclass);
+
+        define(classStatement.slot, classStatement.shared, LoxType.UNKNOWN);
+
+        for (FunctionStatement method : classStatement.methods)
+            inferFunction(method.body);
+
+        for (FunctionStatement method : classStatement.classMethods)
+            inferFunction(method.body);
+
+        return null;
+    }
+
+    private static int line(Expression operation) {
+        if (operation instanceof UnaryExpression unary) return unary.operator.line;
+        return ((BinaryExpression) operation).operator.line;
+    }
+
+    private static String verdict(Expression operation) {
+        if (operation instanceof UnaryExpression unary) {
+            if (unary.right.inferredType == LoxType.NUMBER) return "number";
+            return "checked, " + why(unary.right);
+        }
+
+        BinaryExpression binary = (BinaryExpression) operation;
+        if (binary.left.inferredType == LoxType.NUMBER && binary.right.inferredType == LoxType.NUMBER)
+            return "numbers";
+
+        if (binary.inferredType == LoxType.STRING)
+            return "string concatenation";
+
+        Expression unproven = binary.left.inferredType != LoxType.NUMBER ? binary.left : binary.right;
+        return "checked, " + why(unproven);
+    }
+
+    // Why an operand is not known to be a number
+    private static String why(Expression operand) {
+        String name = describe(operand);
+        if (operand.inferredType != LoxType.UNKNOWN)
+            return name + " is a " + operand.inferredType.name().toLowerCase();
+
+        while (operand instanceof GroupingExpression grouping)
+            operand = grouping.expression;
+
+        if (operand instanceof VariableExpression variable) {
+            if (variable.depth == -1) return name + " is a global";
+            if (variable.shared) return name + " is shared with a closure";
+            if (variable.depth > 0) return name + " is captured";
+            return name + " is a parameter or not always a number here";
+        }
+
+        if (operand instanceof CallExpression || operand instanceof InlinedCallExpression)
+            return name + " is a call";
+
+        if (operand instanceof GetExpression)
+            return name + " is a property";
+
+        if (operand instanceof BinaryExpression binary && binary.operator.type == TokenType.PLUS)
+            return name + " may concatenate strings";
+
+        return name + " is not known";
+    }
+
+    // Source-like text of an expression, for the report
+    private static String describe(Expression expression) {
+        if (expression instanceof LiteralExpression literal)
+            return literal.value instanceof String text ? "\"" + text + "\"" : Interpreter.stringify(literal.value);
+
+        if (expression instanceof VariableExpression variable)
+            return variable.token.lexeme;
+
+        if (expression instanceof AssignmentExpression assignment)
+            return assignment.token.lexeme + " = " + describe(assignment.expression);
+
+        if (expression instanceof UnaryExpression unary)
+            return unary.operator.lexeme + describe(unary.right);
+
+        if (expression instanceof BinaryExpression binary)
+            return describe(binary.left) + " " + binary.operator.lexeme + " " + describe(binary.right);
+
+        if (expression instanceof LogicalExpression logical)
+            return describe(logical.left) + " " + logical.operator.lexeme + " " + describe(logical.right);
+
+        if (expression instanceof GroupingExpression grouping)
+            return "(" + describe(grouping.expression) + ")";
+
+        if (expression instanceof InvariantExpression invariant)
+            return describe(invariant.expression);
+
+        if (expression instanceof InlinedCallExpression inlined)
+            return describe(inlined.call);
+
+        if (expression instanceof CallExpression call) {
+            return describe(call.callee) + "("
+                    + call.arguments.stream().map(TypeInference::describe).collect(Collectors.joining(", ")) + ")";
+        }
+
+        if (expression instanceof GetExpression get)
+            return describe(get.object) + "." + get.name.lexeme;
+
+        if (expression instanceof SetExpression set)
+            return describe(set.object) + "." + set.name.lexeme + " = " + describe(set.value);
+
+        if (expression instanceof ThisExpression)
+            return "this";
+
+        if (expression instanceof SuperExpression superExpression)
+            return "super." + superExpression.method.lexeme;
+
+        return "fun";
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.lox.aot;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+// Compiles the source the JavaTranspiler generates with the JDK's compiler, in memory, then either
+// runs it or writes it to a runnable jar along with the runtime classes it needs
+public final class AotCompiler {
+    // The runtime a compiled program links against: the whole interpreter package, which is small
+    private static final String RUNTIME_PACKAGE = "org/example/lox/";
+
+    private AotCompiler() {
+    }
+
+    // Class files by binary name
+    public static Map<String, byte[]> compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("No Java compiler available, run on a JDK");
+
+        Map<String, byte[]> classes = new HashMap<>();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<>(
+                compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("memory:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return new ByteArrayOutputStream() {
+                            @Override
+                            public void close() {
+                                classes.put(name, toByteArray());
+                            }
+                        };
+                    }
+                };
+            }
+        };
+
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-proc:none", "-nowarn");
+        boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null, List.of(file)).call();
+        if (!compiled) {
+            StringBuilder message = new StringBuilder("Generated Java failed to compile:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                message.append("\n  line ").append(diagnostic.getLineNumber()).append(": ").append(diagnostic.getMessage(null));
+
+            throw new IllegalStateException(message.toString());
+        }
+
+        return classes;
+    }
+
+    public static void run(String className, Map<String, byte[]> classes, String[] args) throws Throwable {
+        ClassLoader loader = new ClassLoader(AotCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null)
+                    throw new ClassNotFoundException(name);
+
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+
+        Method main = loader.loadClass(className).getMethod("main", String[].class);
+        try {
+            main.invoke(null, (Object) args);
+        } catch (InvocationTargetException error) {
+            throw error.getCause();
+        }
+    }
+
+    public static void writeJar(Path path, String className, Map<String, byte[]> classes) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(path), manifest)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet())
+                write(jar, entry.getKey().replace('.', '/') + ".class", entry.getValue());
+
+            copyRuntime(jar);
+        }
+    }
+
+    // Copies the runtime classes from wherever this class was loaded, a directory or a jar
+    private static void copyRuntime(JarOutputStream jar) throws IOException {
+        Path location;
+        try {
+            location = Path.of(AotCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException error) {
+            throw new IOException(error);
+        }
+
+        if (Files.isDirectory(location)) {
+            Path root = location.resolve(RUNTIME_PACKAGE);
+            try (Stream<Path> files = Files.walk(root)) {
+                for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                    String name = location.relativize(file).toString().replace('\\', '/');
+                    write(jar, name, Files.readAllBytes(file));
+                }
+            }
+            return;
+        }
+
+        try (JarFile source = new JarFile(location.toFile())) {
+            Enumeration<JarEntry> entries = source.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().startsWith(RUNTIME_PACKAGE))
+                    continue;
+
+                try (InputStream input = source.getInputStream(entry)) {
+                    write(jar, entry.getName(), input.readAllBytes());
+                }
+            }
+        }
+    }
+
+    private static void write(JarOutputStream jar, String name, byte[] bytes) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.lox.aot;
+
+import org.example.lox.FunctionPrototype;
+import org.example.lox.Interpreter;
+import org.example.lox.LoxFunction;
+import org.example.lox.LoxInstance;
+import org.example.lox.Token;
+import org.example.lox.TokenType;
+
+import java.util.Collections;
+import java.util.List;
+
+// A function compiled to Java by the JavaTranspiler. Subclasses implement run with the body, and
+// the runN of their arity when they take up to three parameters; the receiver is 'this' for methods
+// and null otherwise. Compiled programs have no Interpreter, so they pass null for it, which none of
+// the callables they can reach uses. The prototype only carries the name and the parameter count,
+// which is all that LoxClass, BoundMethod and toString ask of a LoxFunction
+public abstract class AotFunction extends LoxFunction {
+    // Returned by a body for 'return f(...)' once the call is left pending. The entry point the body
+    // was called through runs it, so tail calls take constant Java stack, as in the Interpreter
+    static final Object TAIL_CALL = new Object();
+
+    private static AotFunction tailFunction;
+    private static LoxInstance tailReceiver;
+    private static Object[] tailArguments;
+
+    protected AotFunction(String name, int arity, boolean isInitializer) {
+        super(prototype(name, arity), null, isInitializer);
+    }
+
+    private static FunctionPrototype prototype(String name, int arity) {
+        Token token = new Token(TokenType.IDENTIFIER, name, null, 0);
+        return new FunctionPrototype(name, Collections.nCopies(arity, token), List.of(), 0, List.of(), List.of());
+    }
+
+    String name() {
+        return prototype.name;
+    }
+
+    protected abstract Object run(LoxInstance receiver, Object[] arguments);
+
+    protected Object run0(LoxInstance receiver) {
+        return run(receiver, NO_ARGUMENTS);
+    }
+
+    protected Object run1(LoxInstance receiver, Object a) {
+        return run(receiver, new Object[]{a});
+    }
+
+    protected Object run2(LoxInstance receiver, Object a, Object b) {
+        return run(receiver, new Object[]{a, b});
+    }
+
+    protected Object run3(LoxInstance receiver, Object a, Object b, Object c) {
+        return run(receiver, new Object[]{a, b, c});
+    }
+
+    Object leavePending(LoxInstance receiver, Object[] arguments) {
+        tailFunction = this;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return TAIL_CALL;
+    }
+
+    // The result is the last function's, so 'return this.init()' returns the instance
+    private Object complete(LoxInstance receiver, Object value) {
+        AotFunction function = this;
+        while (value == TAIL_CALL) {
+            function = tailFunction;
+            receiver = tailReceiver;
+            Object[] arguments = tailArguments;
+            tailFunction = null;
+            tailReceiver = null;
+            tailArguments = null;
+
+            value = function.run(receiver, arguments);
+        }
+
+        return function.isInitializer ? receiver : value;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return complete(null, run(null, arguments));
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return complete(null, run0(null));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return complete(null, run1(null, a));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return complete(null, run2(null, a, b));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return complete(null, run3(null, a, b, c));
+    }
+
+    @Override
+    public Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        return complete(receiver, run(receiver, arguments));
+    }
+
+    @Override
+    public Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+        return complete(receiver, run0(receiver));
+    }
+
+    @Override
+    public Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a) {
+        return complete(receiver, run1(receiver, a));
+    }
+
+    @Override
+    public Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a, Object b) {
+        return complete(receiver, run2(receiver, a, b));
+    }
+
+    @Override
+    public Object invoke3(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c) {
+        return complete(receiver, run3(receiver, a, b, c));
+    }
+}
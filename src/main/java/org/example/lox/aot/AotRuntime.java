@@ -0,0 +1,199 @@
+package org.example.lox.aot;
+
+import org.example.lox.Interpreter;
+import org.example.lox.LoxCallable;
+import org.example.lox.LoxClass;
+import org.example.lox.LoxFunction;
+import org.example.lox.LoxInstance;
+import org.example.lox.Token;
+import org.example.lox.exception.RuntimeError;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// What programs compiled by the JavaTranspiler call for everything that is not arithmetic on
+// operands known to be numbers. Each helper does what the Interpreter does for the same node, in
+// the same order, with the same errors
+public final class AotRuntime {
+    // Held by a global until its declaration runs
+    public static final Object UNDEFINED = new Object();
+
+    private static long startTime;
+
+    public static final LoxCallable CLOCK = new LoxCallable() {
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            return call0(interpreter);
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            return (double) (System.currentTimeMillis() - startTime);
+        }
+
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "<native_function>";
+        }
+    };
+
+    private AotRuntime() {
+    }
+
+    // The main method of a compiled program, which reports runtime errors as Lox does
+    public static void run(Runnable program) {
+        startTime = System.currentTimeMillis();
+        try {
+            program.run();
+        } catch (RuntimeError error) {
+            System.err.println("[line " + error.line + "] " + error.getMessage());
+            System.exit(70);
+        }
+    }
+
+    public static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    public static Object global(Object value, Token name) {
+        if (value == UNDEFINED)
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+
+        return value;
+    }
+
+    // The value to store into a global, once it is known to be defined
+    public static Object assign(Object current, Object value, Token name) {
+        global(current, name);
+        return value;
+    }
+
+    public static double negate(Object operand, Token operator) {
+        if (operand instanceof Double number) return -number;
+        throw new RuntimeError(operator, "Operand must be number");
+    }
+
+    public static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a + b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    public static double subtract(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a - b;
+        return (double) Interpreter.binary(operator, left, right);
+    }
+
+    public static double multiply(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a * b;
+        return (double) Interpreter.binary(operator, left, right);
+    }
+
+    public static double divide(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return divide(a.doubleValue(), b.doubleValue(), operator);
+        return (double) Interpreter.binary(operator, left, right);
+    }
+
+    public static double divide(double left, double right, Token operator) {
+        if (right == 0)
+            throw new RuntimeError(operator, "Division by zero");
+
+        return left / right;
+    }
+
+    public static boolean less(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a < b;
+        return (boolean) Interpreter.binary(operator, left, right);
+    }
+
+    public static boolean lessEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a <= b;
+        return (boolean) Interpreter.binary(operator, left, right);
+    }
+
+    public static boolean greater(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a > b;
+        return (boolean) Interpreter.binary(operator, left, right);
+    }
+
+    public static boolean greaterEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a >= b;
+        return (boolean) Interpreter.binary(operator, left, right);
+    }
+
+    // Double.equals, which is what isEqual does for two numbers
+    public static boolean equal(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    public static LoxCallable callable(Object callee, int argumentCount, Token parenthesis) {
+        return Interpreter.checkCallable(callee, argumentCount, parenthesis);
+    }
+
+    public static LoxFunction method(LoxFunction method, int argumentCount, Token parenthesis) {
+        Interpreter.checkArity(method, argumentCount, parenthesis);
+        return method;
+    }
+
+    // 'return f(...)': compiled functions are left pending for the caller's entry point to run
+    public static Object tailCall(Object callee, Object[] arguments, Token parenthesis) {
+        LoxCallable function = Interpreter.checkCallable(callee, arguments.length, parenthesis);
+        if (function instanceof AotFunction aotFunction)
+            return aotFunction.leavePending(null, arguments);
+
+        return function.call(null, arguments);
+    }
+
+    // 'return object.name(...)', given the receiver and what the call site looked up on it
+    public static Object tailInvoke(LoxInstance receiver, LoxFunction method, Object field, Object[] arguments, Token parenthesis) {
+        if (method == null)
+            return tailCall(field, arguments, parenthesis);
+
+        Interpreter.checkArity(method, arguments.length, parenthesis);
+        return ((AotFunction) method).leavePending(receiver, arguments);
+    }
+
+    public static LoxInstance instance(Object object, Token name) {
+        if (object instanceof LoxInstance loxInstance) return loxInstance;
+        throw new RuntimeError(name, "Only instances can have properties");
+    }
+
+    // Checked before the value of a set is evaluated
+    public static LoxInstance fieldOwner(Object object, Token name) {
+        if (object instanceof LoxInstance loxInstance) return loxInstance;
+        throw new RuntimeError(name, "Only instances can have fields");
+    }
+
+    public static Object superMethod(Object superclass, Object receiver, Token name) {
+        LoxFunction method = ((LoxClass) superclass).findMethod(name.lexeme);
+        if (method == null)
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'");
+
+        return method.bind((LoxInstance) receiver);
+    }
+
+    public static LoxClass superclass(Object value, Token name) {
+        if (value instanceof LoxClass loxClass) return loxClass;
+        throw new RuntimeError(name, "Superclass must be a class");
+    }
+
+    public static Map<String, LoxFunction> methods(AotFunction... functions) {
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (AotFunction function : functions)
+            methods.put(function.name(), function);
+
+        return methods;
+    }
+
+    public static Map<Token, LoxFunction> classMethods(Token[] names, AotFunction[] functions) {
+        Map<Token, LoxFunction> methods = new HashMap<>();
+        for (int i = 0; i < names.length; i++)
+            methods.put(names[i], functions[i]);
+
+        return methods;
+    }
+}
@@ -0,0 +1,817 @@
+package org.example.lox.aot;
+
+import org.example.lox.Capture;
+import org.example.lox.LoxType;
+import org.example.lox.Token;
+import org.example.lox.TokenType;
+import org.example.lox.ast.Visitor;
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Translates a resolved program into the Java source of one class. Every function, lambda and
+// method becomes a nested AotFunction whose fields hold its captures; frames become Java locals,
+// shared variables Cells, and globals static fields. Each subexpression is evaluated into a local
+// of its own, so operands are evaluated in the Interpreter's order whatever Java does with the
+// expressions built from them, and operators on numbers keep them in double locals. Statements
+// after a return, break or continue are left out, as Java rejects unreachable code
+public class JavaTranspiler implements Visitor<JavaTranspiler.Operand> {
+    // Top-level statements per method, which keeps large scripts under the JVM's method size limit
+    private static final int STATEMENTS_PER_METHOD = 64;
+
+    enum Kind {NUMBER, BOOLEAN, OBJECT}
+
+    record Operand(String code, Kind kind) {
+        @Override
+        public String toString() {
+            return code;
+        }
+    }
+
+    private static final Operand NIL = new Operand("null", Kind.OBJECT);
+
+    // A frame of locals: a function's own, the closure its captures are fields of, a top-level
+    // block's or the one holding the superclass while a class's methods are created
+    private record Frame(Frame parent, String prefix, boolean isClosure) {
+        String name(int slot) {
+            return prefix + slot;
+        }
+    }
+
+    private static class Loop {
+        final int label;
+        boolean continued = false;
+
+        Loop(int label) {
+            this.label = label;
+        }
+    }
+
+    // The Java method being generated: a chunk of top-level statements, or a function's body
+    private static class Method {
+        final StringBuilder out = new StringBuilder();
+        final int arity;
+        final boolean isFunction;
+        final boolean hasReceiver;
+        Frame frame;
+        int indent;
+        int temps = 0;
+        int labels = 0;
+        final Deque<Loop> loops = new ArrayDeque<>();
+        boolean reachable = true;
+        // Set once a tail call to the function itself loops back to the start of the body
+        boolean callsItself = false;
+
+        Method(Frame frame, int indent, int arity, boolean isFunction, boolean hasReceiver) {
+            this.frame = frame;
+            this.indent = indent;
+            this.arity = arity;
+            this.isFunction = isFunction;
+            this.hasReceiver = hasReceiver;
+        }
+    }
+
+    private final String className;
+    private final boolean tailCalls;
+
+    private final List<String> constants = new ArrayList<>();
+    private final Map<Token, String> tokens = new IdentityHashMap<>();
+    private final Set<String> globals = new LinkedHashSet<>();
+    private final List<String> classes = new ArrayList<>();
+    private int classCount = 0;
+    private int frameCount = 0;
+    private int cacheCount = 0;
+
+    private Method method;
+
+    private JavaTranspiler(String className, boolean tailCalls) {
+        this.className = className;
+        this.tailCalls = tailCalls;
+    }
+
+    public static String transpile(List<Statement> statements, String className, boolean tailCalls) {
+        return new JavaTranspiler(className, tailCalls).transpile(statements);
+    }
+
+    private String transpile(List<Statement> statements) {
+        List<String> chunks = new ArrayList<>();
+        if (statements.size() == 1 && statements.get(0) instanceof ExpressionStatement statement) {
+            method = new Method(null, 2, 0, false, false);
+            line("AotRuntime.print(" + compile(statement.expression) + ");");
+            chunks.add(method.out.toString());
+        } else {
+            for (int i = 0; i < statements.size(); i += STATEMENTS_PER_METHOD) {
+                method = new Method(null, 2, 0, false, false);
+                compileStatements(statements.subList(i, Math.min(i + STATEMENTS_PER_METHOD, statements.size())));
+                chunks.add(method.out.toString());
+            }
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("""
+                import org.example.lox.Cell;
+                import org.example.lox.Interpreter;
+                import org.example.lox.LoxClass;
+                import org.example.lox.LoxFunction;
+                import org.example.lox.LoxInstance;
+                import org.example.lox.PropertyCache;
+                import org.example.lox.Rope;
+                import org.example.lox.Token;
+                import org.example.lox.TokenType;
+                import org.example.lox.aot.AotFunction;
+                import org.example.lox.aot.AotRuntime;
+
+                """);
+        source.append("public final class ").append(className).append(" {\n");
+        for (String constant : constants)
+            source.append("    ").append(constant).append('\n');
+
+        for (String global : globals) {
+            String value = global.equals("clock") ? "AotRuntime.CLOCK" : "AotRuntime.UNDEFINED";
+            source.append("    private static Object g_").append(global).append(" = ").append(value).append(";\n");
+        }
+
+        source.append("\n    public static void main(String[] args) {\n");
+        source.append("        AotRuntime.run(() -> {\n");
+        for (int i = 0; i < chunks.size(); i++)
+            source.append("            run").append(i).append("();\n");
+        source.append("        });\n    }\n");
+
+        for (int i = 0; i < chunks.size(); i++) {
+            source.append("\n    private static void run").append(i).append("() {\n");
+            source.append(chunks.get(i));
+            source.append("    }\n");
+        }
+
+        for (String nested : classes)
+            source.append('\n').append(nested);
+
+        return source.append("}\n").toString();
+    }
+
+    private void compileStatements(List<Statement> statements) {
+        for (Statement statement : statements) {
+            if (!method.reachable) return;
+            statement.accept(this);
+        }
+    }
+
+    private Operand compile(Expression expression) {
+        return expression.accept(this);
+    }
+
+    private void line(String code) {
+        method.out.append("    ".repeat(method.indent)).append(code).append('\n');
+    }
+
+    private Operand temp(Kind kind, String expression) {
+        return new Operand(temp(type(kind), expression), kind);
+    }
+
+    private String temp(String type, String expression) {
+        String name = "v" + method.temps++;
+        line(type + " " + name + " = " + expression + ";");
+        return name;
+    }
+
+    private static String type(Kind kind) {
+        return switch (kind) {
+            case NUMBER -> "double";
+            case BOOLEAN -> "boolean";
+            case OBJECT -> "Object";
+        };
+    }
+
+    private static String condition(Operand operand) {
+        return switch (operand.kind) {
+            case NUMBER -> "true";
+            case BOOLEAN -> operand.code;
+            case OBJECT -> "Interpreter.isTrue(" + operand.code + ")";
+        };
+    }
+
+    private String token(Token token) {
+        return tokens.computeIfAbsent(token, key -> {
+            String name = "T" + tokens.size();
+            constants.add("private static final Token " + name + " = new Token(TokenType." + key.type.name()
+                    + ", " + literal(key.lexeme) + ", null, " + key.line + ");");
+            return name;
+        });
+    }
+
+    private String cache(Token name) {
+        String token = token(name);
+        String cache = "P" + cacheCount++;
+        constants.add("private static final PropertyCache " + cache + " = new PropertyCache(" + token + ");");
+        return cache;
+    }
+
+    private String global(Token name) {
+        globals.add(name.lexeme);
+        return "g_" + name.lexeme;
+    }
+
+    private Frame frame(int depth) {
+        Frame frame = method.frame;
+        for (int i = 0; i < depth; i++)
+            frame = frame.parent;
+
+        return frame;
+    }
+
+    // The local or capture field holding a slot, or the value of its Cell
+    private String variable(int depth, int slot, boolean shared) {
+        Frame frame = frame(depth);
+        String name = frame.name(slot);
+        if (!shared) return name;
+        return frame.isClosure ? "((Cell) " + name + ").value" : name + ".value";
+    }
+
+    private String captures(List<Capture> captures) {
+        return captures.stream()
+                .map(capture -> variable(capture.depth, capture.slot, false))
+                .collect(Collectors.joining(", "));
+    }
+
+    // A local for a declaration in the current frame, or the global it defines; null means nil
+    private void declare(int slot, Token name, boolean shared, String value) {
+        if (slot == -1) {
+            line(global(name) + " = " + value + ";");
+        } else if (shared) {
+            line("Cell " + method.frame.name(slot) + " = new Cell(" + value + ");");
+        } else {
+            line("Object " + method.frame.name(slot) + " = " + value + ";");
+        }
+    }
+
+    private void store(int slot, Token name, boolean shared, String value) {
+        if (slot == -1) {
+            line(global(name) + " = " + value + ";");
+        } else if (shared) {
+            line(method.frame.name(slot) + ".value = " + value + ";");
+        } else {
+            line(method.frame.name(slot) + " = " + value + ";");
+        }
+    }
+
+    // Generates the nested class of a function and returns its name
+    private String compileFunction(String prefix, String name, List<Token> parameters, List<Statement> body,
+                                   List<Integer> sharedParameters, int captureCount,
+                                   boolean hasReceiver, boolean isInitializer) {
+        String function = prefix + classCount++ + "_" + name;
+        int arity = parameters.size();
+        int offset = hasReceiver ? 1 : 0;
+
+        Method enclosing = method;
+        method = new Method(new Frame(new Frame(null, "c", true), "s", false), 2, arity, true, hasReceiver);
+        if (hasReceiver)
+            line("Object s0 = self;");
+
+        for (int i = 0; i < arity; i++) {
+            int slot = i + offset;
+            if (sharedParameters.contains(slot))
+                line("Cell s" + slot + " = new Cell(p" + i + ");");
+            else
+                line("Object s" + slot + " = p" + i + ";");
+        }
+
+        compileStatements(body);
+        if (method.reachable)
+            line("return null;");
+
+        String code = method.out.toString();
+        if (method.callsItself)
+            code = "        start:\n        while (true) {\n" + code.indent(4) + "        }\n";
+
+        method = enclosing;
+
+        StringBuilder source = new StringBuilder();
+        source.append("    private static final class ").append(function).append(" extends AotFunction {\n");
+        for (int i = 0; i < captureCount; i++)
+            source.append("        private final Object c").append(i).append(";\n");
+
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < captureCount; i++) fields.add("Object c" + i);
+        source.append("\n        ").append(function).append("(").append(String.join(", ", fields)).append(") {\n");
+        source.append("            super(").append(literal(name)).append(", ").append(arity).append(", ")
+                .append(isInitializer).append(");\n");
+        for (int i = 0; i < captureCount; i++)
+            source.append("            this.c").append(i).append(" = c").append(i).append(";\n");
+        source.append("        }\n\n");
+
+        List<String> parameterList = new ArrayList<>();
+        List<String> argumentList = new ArrayList<>();
+        for (int i = 0; i < arity; i++) {
+            parameterList.add("Object p" + i);
+            argumentList.add("arguments[" + i + "]");
+        }
+
+        source.append("        @Override\n");
+        source.append("        protected Object run(LoxInstance self, Object[] arguments) {\n");
+        if (arity <= 3) {
+            source.append("            return run").append(arity).append("(self");
+            for (String argument : argumentList) source.append(", ").append(argument);
+            source.append(");\n        }\n\n");
+
+            source.append("        @Override\n");
+            source.append("        protected Object run").append(arity).append("(LoxInstance self");
+            for (String parameter : parameterList) source.append(", ").append(parameter);
+            source.append(") {\n");
+        } else {
+            for (int i = 0; i < arity; i++)
+                source.append("            Object p").append(i).append(" = arguments[").append(i).append("];\n");
+        }
+
+        source.append(code.indent(4));
+        source.append("        }\n    }\n");
+        classes.add(source.toString());
+        return function;
+    }
+
+    private List<Operand> compileArguments(List<Expression> arguments) {
+        List<Operand> operands = new ArrayList<>();
+        for (Expression argument : arguments)
+            operands.add(compile(argument));
+
+        return operands;
+    }
+
+    private static String argumentList(List<Operand> arguments) {
+        return arguments.stream().map(Operand::code).collect(Collectors.joining(", "));
+    }
+
+    private static String call(String receiver, List<Operand> arguments) {
+        String prefix = receiver == null ? "null" : "null, " + receiver;
+        String name = receiver == null ? "call" : "invoke";
+        if (arguments.size() > 3)
+            return name + "(" + prefix + ", new Object[]{" + argumentList(arguments) + "})";
+
+        return name + arguments.size() + "(" + prefix
+                + (arguments.isEmpty() ? "" : ", " + argumentList(arguments)) + ")";
+    }
+
+    // The receiver, its method and, when it has none by that name, its field, for a call site
+    // 'object.name(...)' evaluated up to the arguments
+    private String[] lookUp(GetExpression get) {
+        Operand object = compile(get.object);
+        String cache = cache(get.name);
+        String receiver = temp("LoxInstance", "AotRuntime.instance(" + object + ", " + token(get.name) + ")");
+        String method = temp("LoxFunction", cache + ".lookUpMethod(" + receiver + ")");
+        String field = temp("Object", method + " == null ? " + cache + ".get(" + receiver + ") : null");
+        return new String[]{receiver, method, field};
+    }
+
+    private Operand compileCall(CallExpression call) {
+        String parenthesis = token(call.rightParenthesis);
+        int count = call.arguments.size();
+
+        if (call.callee instanceof GetExpression get) {
+            String[] lookUp = lookUp(get);
+            List<Operand> arguments = compileArguments(call.arguments);
+            String invoke = "AotRuntime.method(" + lookUp[1] + ", " + count + ", " + parenthesis + ")."
+                    + call(lookUp[0], arguments);
+            String apply = "AotRuntime.callable(" + lookUp[2] + ", " + count + ", " + parenthesis + ")."
+                    + call(null, arguments);
+            return temp(Kind.OBJECT, lookUp[1] + " != null ? " + invoke + " : " + apply);
+        }
+
+        Operand callee = compile(call.callee);
+        List<Operand> arguments = compileArguments(call.arguments);
+        return temp(Kind.OBJECT, "AotRuntime.callable(" + callee + ", " + count + ", " + parenthesis + ")."
+                + call(null, arguments));
+    }
+
+    private void compileTailCall(CallExpression call) {
+        String parenthesis = token(call.rightParenthesis);
+
+        if (call.callee instanceof GetExpression get) {
+            String[] lookUp = lookUp(get);
+            List<Operand> arguments = compileArguments(call.arguments);
+            line("return AotRuntime.tailInvoke(" + lookUp[0] + ", " + lookUp[1] + ", " + lookUp[2]
+                    + ", new Object[]{" + argumentList(arguments) + "}, " + parenthesis + ");");
+            return;
+        }
+
+        Operand callee = compile(call.callee);
+        List<Operand> arguments = compileArguments(call.arguments);
+
+        // A function calling itself starts its body over with the new arguments
+        if (method.isFunction && !method.hasReceiver && arguments.size() == method.arity) {
+            method.callsItself = true;
+            line("if (" + callee + " == this) {");
+            for (int i = 0; i < arguments.size(); i++)
+                line("    p" + i + " = " + arguments.get(i) + ";");
+            line("    continue start;");
+            line("}");
+        }
+
+        line("return AotRuntime.tailCall(" + callee + ", new Object[]{" + argumentList(arguments) + "}, "
+                + parenthesis + ");");
+    }
+
+    @Override
+    public Operand visitUnaryExpression(UnaryExpression unaryExpression) {
+        Operand right = compile(unaryExpression.right);
+        if (unaryExpression.operator.type == TokenType.EXCLAMATION_MARK)
+            return temp(Kind.BOOLEAN, "!" + condition(right));
+
+        if (right.kind == Kind.NUMBER)
+            return temp(Kind.NUMBER, "-" + right);
+
+        return temp(Kind.NUMBER, "AotRuntime.negate(" + right + ", " + token(unaryExpression.operator) + ")");
+    }
+
+    @Override
+    public Operand visitBinaryExpression(BinaryExpression binaryExpression) {
+        Operand left = compile(binaryExpression.left);
+        Operand right = compile(binaryExpression.right);
+        String operator = token(binaryExpression.operator);
+        boolean numbers = left.kind == Kind.NUMBER && right.kind == Kind.NUMBER;
+
+        return switch (binaryExpression.operator.type) {
+            case PLUS -> {
+                if (numbers) yield temp(Kind.NUMBER, left + " + " + right);
+                if (binaryExpression.inferredType == LoxType.STRING)
+                    yield temp(Kind.OBJECT, "Rope.concatenate(" + left + ", " + right + ")");
+
+                yield temp(Kind.OBJECT, "AotRuntime.add(" + left + ", " + right + ", " + operator + ")");
+            }
+            case MINUS -> arithmetic(left, right, numbers, "-", "subtract", operator);
+            case ASTERISK -> arithmetic(left, right, numbers, "*", "multiply", operator);
+            case SLASH -> temp(Kind.NUMBER, "AotRuntime.divide(" + left + ", " + right + ", " + operator + ")");
+            case LESS -> comparison(left, right, numbers, "<", "less", operator);
+            case LESS_EQUAL -> comparison(left, right, numbers, "<=", "lessEqual", operator);
+            case GREATER -> comparison(left, right, numbers, ">", "greater", operator);
+            case GREATER_EQUAL -> comparison(left, right, numbers, ">=", "greaterEqual", operator);
+            case EQUAL_EQUAL -> temp(Kind.BOOLEAN, equality(left, right, numbers));
+            case EXCLAMATION_MARK_EQUAL -> temp(Kind.BOOLEAN, "!" + equality(left, right, numbers));
+            default -> throw new IllegalStateException("Unexpected operator " + binaryExpression.operator.type);
+        };
+    }
+
+    private Operand arithmetic(Operand left, Operand right, boolean numbers, String operator,
+                               String helper, String token) {
+        if (numbers) return temp(Kind.NUMBER, left + " " + operator + " " + right);
+        return temp(Kind.NUMBER, "AotRuntime." + helper + "(" + left + ", " + right + ", " + token + ")");
+    }
+
+    private Operand comparison(Operand left, Operand right, boolean numbers, String operator,
+                               String helper, String token) {
+        if (numbers) return temp(Kind.BOOLEAN, left + " " + operator + " " + right);
+        return temp(Kind.BOOLEAN, "AotRuntime." + helper + "(" + left + ", " + right + ", " + token + ")");
+    }
+
+    private static String equality(Operand left, Operand right, boolean numbers) {
+        if (numbers) return "AotRuntime.equal(" + left + ", " + right + ")";
+        return "Interpreter.isEqual(" + left + ", " + right + ")";
+    }
+
+    @Override
+    public Operand visitGroupingExpression(GroupingExpression groupingExpression) {
+        return compile(groupingExpression.expression);
+    }
+
+    @Override
+    public Operand visitLiteralExpression(LiteralExpression literalExpression) {
+        Object value = literalExpression.value;
+        if (value == null) return NIL;
+        if (value instanceof Boolean) return new Operand(value.toString(), Kind.BOOLEAN);
+        if (value instanceof Double number) return new Operand(number(number), Kind.NUMBER);
+        return new Operand(literal(value.toString()), Kind.OBJECT);
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value)) return "Double.NaN";
+        if (value == Double.POSITIVE_INFINITY) return "Double.POSITIVE_INFINITY";
+        if (value == Double.NEGATIVE_INFINITY) return "Double.NEGATIVE_INFINITY";
+
+        String text = Double.toString(value);
+        return text.startsWith("-") ? "(" + text + ")" : text;
+    }
+
+    private static String literal(String text) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '"' -> literal.append("\\\"");
+                case '\\' -> literal.append("\\\\");
+                case '\n' -> literal.append("\\n");
+                case '\r' -> literal.append("\\r");
+                case '\t' -> literal.append("\\t");
+                default -> {
+                    if (c < ' ' || c > '~')
+                        literal.append(String.format("\\u%04x", (int) c));
+                    else
+                        literal.append(c);
+                }
+            }
+        }
+
+        return literal.append('"').toString();
+    }
+
+    @Override
+    public Operand visitVariableExpression(VariableExpression variableExpression) {
+        if (variableExpression.depth == -1) {
+            return temp(Kind.OBJECT, "AotRuntime.global(" + global(variableExpression.token) + ", "
+                    + token(variableExpression.token) + ")");
+        }
+
+        String variable = variable(variableExpression.depth, variableExpression.slot, variableExpression.shared);
+        if (variableExpression.inferredType == LoxType.NUMBER)
+            return temp(Kind.NUMBER, "(double) " + variable);
+
+        return temp(Kind.OBJECT, variable);
+    }
+
+    @Override
+    public Operand visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+        Operand value = compile(assignmentExpression.expression);
+        if (assignmentExpression.depth == -1) {
+            String global = global(assignmentExpression.token);
+            line(global + " = AotRuntime.assign(" + global + ", " + value + ", "
+                    + token(assignmentExpression.token) + ");");
+        } else {
+            line(variable(assignmentExpression.depth, assignmentExpression.slot, assignmentExpression.shared)
+                    + " = " + value + ";");
+        }
+
+        return value;
+    }
+
+    @Override
+    public Operand visitLogicalExpression(LogicalExpression logicalExpression) {
+        Operand left = compile(logicalExpression.left);
+        Operand result = temp(Kind.OBJECT, left.code);
+        boolean isOr = logicalExpression.operator.type == TokenType.OR;
+
+        line("if (" + (isOr ? "!" : "") + condition(left) + ") {");
+        method.indent++;
+        Operand right = compile(logicalExpression.right);
+        line(result + " = " + right + ";");
+        method.indent--;
+        line("}");
+        return result;
+    }
+
+    @Override
+    public Operand visitCallExpression(CallExpression callExpression) {
+        return compileCall(callExpression);
+    }
+
+    @Override
+    public Operand visitGetExpression(GetExpression getExpression) {
+        Operand object = compile(getExpression.object);
+        return temp(Kind.OBJECT, cache(getExpression.name) + ".get(AotRuntime.instance(" + object + ", "
+                + token(getExpression.name) + "))");
+    }
+
+    @Override
+    public Operand visitSetExpression(SetExpression setExpression) {
+        Operand object = compile(setExpression.object);
+        String instance = temp("LoxInstance", "AotRuntime.fieldOwner(" + object + ", "
+                + token(setExpression.name) + ")");
+        Operand value = compile(setExpression.value);
+        line(cache(setExpression.name) + ".set(" + instance + ", " + value + ");");
+        return value;
+    }
+
+    @Override
+    public Operand visitThisExpression(ThisExpression thisExpression) {
+        return temp(Kind.OBJECT, variable(thisExpression.depth, thisExpression.slot, false));
+    }
+
+    @Override
+    public Operand visitSuperExpression(SuperExpression superExpression) {
+        return temp(Kind.OBJECT, "AotRuntime.superMethod("
+                + variable(superExpression.depth, superExpression.slot, false) + ", "
+                + variable(superExpression.thisDepth, superExpression.thisSlot, false) + ", "
+                + token(superExpression.method) + ")");
+    }
+
+    @Override
+    public Operand visitLambdaExpression(LambdaExpression lambdaExpression) {
+        String function = compileFunction("L", "lambda", lambdaExpression.parameters, lambdaExpression.body,
+                lambdaExpression.sharedParameters, lambdaExpression.captures.size(), false, false);
+        return temp(Kind.OBJECT, "new " + function + "(" + captures(lambdaExpression.captures) + ")");
+    }
+
+    // Loop invariants are computed where they stand; javac and the JVM hoist what is worth it
+    @Override
+    public Operand visitInvariantExpression(InvariantExpression invariantExpression) {
+        return compile(invariantExpression.expression);
+    }
+
+    @Override
+    public Operand visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        return compileCall(inlinedCallExpression.call);
+    }
+
+    @Override
+    public Operand visitExpressionStatement(ExpressionStatement expressionStatement) {
+        compile(expressionStatement.expression);
+        return null;
+    }
+
+    @Override
+    public Operand visitPrintStatement(PrintStatement printStatement) {
+        line("AotRuntime.print(" + compile(printStatement.expression) + ");");
+        return null;
+    }
+
+    @Override
+    public Operand visitVariableStatement(VariableStatement variableStatement) {
+        // A shared variable's Cell exists before the initializer runs, which closures in it may capture
+        if (variableStatement.shared) {
+            declare(variableStatement.slot, variableStatement.token, true, "null");
+            if (variableStatement.expression != null) {
+                Operand value = compile(variableStatement.expression);
+                store(variableStatement.slot, variableStatement.token, true, value.code);
+            }
+
+            return null;
+        }
+
+        Operand value = variableStatement.expression != null ? compile(variableStatement.expression) : NIL;
+        declare(variableStatement.slot, variableStatement.token, false, value.code);
+        return null;
+    }
+
+    @Override
+    public Operand visitBlockStatement(BlockStatement blockStatement) {
+        line("{");
+        method.indent++;
+        if (blockStatement.allocatesEnvironment)
+            method.frame = new Frame(method.frame, "b" + frameCount++ + "_", false);
+
+        compileStatements(blockStatement.statements);
+
+        if (blockStatement.allocatesEnvironment)
+            method.frame = method.frame.parent;
+
+        method.indent--;
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Operand visitIfStatement(IfStatement ifStatement) {
+        Operand condition = compile(ifStatement.condition);
+        line("if (" + condition(condition) + ") {");
+        method.indent++;
+        ifStatement.thenBranch.accept(this);
+        method.indent--;
+
+        if (ifStatement.elseBranch == null) {
+            line("}");
+            method.reachable = true;
+            return null;
+        }
+
+        boolean thenCompletes = method.reachable;
+        method.reachable = true;
+        line("} else {");
+        method.indent++;
+        ifStatement.elseBranch.accept(this);
+        method.indent--;
+        line("}");
+        method.reachable |= thenCompletes;
+        return null;
+    }
+
+    // continue leaves the body block, so the increment still runs
+    @Override
+    public Operand visitWhileStatement(WhileStatement whileStatement) {
+        Loop loop = new Loop(method.labels++);
+        line("loop" + loop.label + ":");
+        line("while (true) {");
+        method.indent++;
+        Operand condition = compile(whileStatement.condition);
+        line("if (!" + condition(condition) + ") break loop" + loop.label + ";");
+
+        method.loops.push(loop);
+        line("body" + loop.label + ":");
+        line("{");
+        method.indent++;
+        whileStatement.body.accept(this);
+        method.indent--;
+        line("}");
+        method.loops.pop();
+
+        method.reachable |= loop.continued;
+        if (method.reachable && whileStatement.increment != null)
+            compile(whileStatement.increment);
+
+        method.indent--;
+        line("}");
+        method.reachable = true;
+        return null;
+    }
+
+    @Override
+    public Operand visitBreakStatement(BreakStatement breakStatement) {
+        line("break loop" + method.loops.peek().label + ";");
+        method.reachable = false;
+        return null;
+    }
+
+    @Override
+    public Operand visitContinueStatement(ContinueStatement continueStatement) {
+        Loop loop = method.loops.peek();
+        loop.continued = true;
+        line("break body" + loop.label + ";");
+        method.reachable = false;
+        return null;
+    }
+
+    @Override
+    public Operand visitFunctionStatement(FunctionStatement functionStatement) {
+        String function = compileFunction("F", functionStatement.token.lexeme, functionStatement.parameters,
+                functionStatement.body, functionStatement.sharedParameters, functionStatement.captures.size(),
+                false, false);
+
+        // Declared first when shared, as the function may capture itself
+        if (functionStatement.shared)
+            declare(functionStatement.slot, functionStatement.token, true, "null");
+
+        String creation = "new " + function + "(" + captures(functionStatement.captures) + ")";
+        if (functionStatement.shared)
+            store(functionStatement.slot, functionStatement.token, true, creation);
+        else
+            declare(functionStatement.slot, functionStatement.token, false, creation);
+
+        return null;
+    }
+
+    @Override
+    public Operand visitReturnStatement(ReturnStatement returnStatement) {
+        Expression value = returnStatement.value;
+        if (value == null) {
+            line("return null;");
+        } else if (tailCalls && value instanceof CallExpression call) {
+            compileTailCall(call);
+        } else if (tailCalls && value instanceof InlinedCallExpression inlined && inlined.body == null) {
+            compileTailCall(inlined.call);
+        } else {
+            line("return " + compile(value) + ";");
+        }
+
+        method.reachable = false;
+        return null;
+    }
+
+    @Override
+    public Operand visitClassStatement(ClassStatement classStatement) {
+        String superclass = null;
+        if (classStatement.superclass != null) {
+            Operand value = compile(classStatement.superclass);
+            superclass = temp("LoxClass", "AotRuntime.superclass(" + value + ", "
+                    + token(classStatement.superclass.token) + ")");
+        }
+
+        declare(classStatement.slot, classStatement.name, classStatement.shared, "null");
+
+        if (superclass != null) {
+            method.frame = new Frame(method.frame, "u" + frameCount++ + "_", false);
+            line("Object " + method.frame.name(0) + " = " + superclass + ";");
+        }
+
+        List<String> methods = new ArrayList<>();
+        for (FunctionStatement function : classStatement.methods) {
+            boolean isInitializer = function.token.lexeme.equals("init");
+            String name = compileFunction("M", function.token.lexeme, function.parameters, function.body,
+                    function.sharedParameters, function.captures.size(), true, isInitializer);
+            methods.add("new " + name + "(" + captures(function.captures) + ")");
+        }
+
+        List<String> names = new ArrayList<>();
+        List<String> classMethods = new ArrayList<>();
+        for (FunctionStatement function : classStatement.classMethods) {
+            String name = compileFunction("M", function.token.lexeme, function.parameters, function.body,
+                    function.sharedParameters, function.captures.size(), false, false);
+            names.add(token(function.token));
+            classMethods.add("new " + name + "(" + captures(function.captures) + ")");
+        }
+
+        Operand clazz = temp(Kind.OBJECT, "new LoxClass(" + literal(classStatement.name.lexeme) + ", "
+                + (superclass != null ? superclass : "null") + ", "
+                + "AotRuntime.methods(" + String.join(", ", methods) + "), "
+                + "AotRuntime.classMethods(new Token[]{" + String.join(", ", names) + "}, "
+                + "new AotFunction[]{" + String.join(", ", classMethods) + "}))");
+
+        if (superclass != null)
+            method.frame = method.frame.parent;
+
+        store(classStatement.slot, classStatement.name, classStatement.shared, clazz.code);
+        return null;
+    }
+}
@@ -17,6 +17,8 @@ public interface Visitor<R>  {
 	public R visitThisExpression(ThisExpression thisExpression);
 	public R visitSuperExpression(SuperExpression superExpression);
 	public R visitLambdaExpression(LambdaExpression lambdaExpression);
+	public R visitInvariantExpression(InvariantExpression invariantExpression);
+	public R visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression);
 
 	public R visitExpressionStatement(ExpressionStatement expressionStatement);
 	public R visitPrintStatement(PrintStatement printStatement);
@@ -11,6 +11,9 @@ import lombok.RequiredArgsConstructor;
 public class AssignmentExpression extends Expression {
 	public final Token token;
 	public final Expression expression;
+	public int depth = -1;
+	public int slot = -1;
+	public boolean shared = false;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitAssignmentExpression(this);
@@ -1,5 +1,7 @@
 package org.example.lox.ast.expression;
 
+import org.example.lox.LoxType;
+
 import org.example.lox.ast.Visitor;
 
 
@@ -7,6 +9,7 @@ import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 public abstract class Expression {
+	public LoxType inferredType = LoxType.UNKNOWN;
 
 	public abstract <R> R accept(Visitor<R> visitor);
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package org.example.lox.ast.expression;
 
 import org.example.lox.Token;
 
+import org.example.lox.PropertyCache;
+
 import org.example.lox.ast.Visitor;
 
 
@@ -11,6 +13,7 @@ import lombok.RequiredArgsConstructor;
 public class GetExpression extends Expression {
 	public final Expression object;
 	public final Token name;
+	public PropertyCache cache;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitGetExpression(this);
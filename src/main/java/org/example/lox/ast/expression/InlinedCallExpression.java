@@ -0,0 +1,21 @@
+package org.example.lox.ast.expression;
+
+import org.example.lox.ast.statement.FunctionStatement;
+
+import org.example.lox.ast.Visitor;
+
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class InlinedCallExpression extends Expression {
+	public final CallExpression call;
+	public final FunctionStatement function;
+	public final Expression body;
+	public int slot = -1;
+
+	public <R> R accept(Visitor<R> visitor) {
+		return visitor.visitInlinedCallExpression(this);
+	}
+
+}
\ No newline at end of file
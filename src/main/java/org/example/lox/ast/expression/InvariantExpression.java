@@ -0,0 +1,18 @@
+package org.example.lox.ast.expression;
+
+import org.example.lox.ast.Visitor;
+
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class InvariantExpression extends Expression {
+	public final Expression expression;
+	public int depth = -1;
+	public int slot = -1;
+
+	public <R> R accept(Visitor<R> visitor) {
+		return visitor.visitInvariantExpression(this);
+	}
+
+}
\ No newline at end of file
@@ -8,6 +8,14 @@ import java.util.List;
 
 import org.example.lox.ast.statement.Statement;
 
+import java.util.List;
+
+import org.example.lox.Capture;
+
+import java.util.List;
+
+import org.example.lox.FunctionPrototype;
+
 import org.example.lox.ast.Visitor;
 
 
@@ -17,6 +25,10 @@ import lombok.RequiredArgsConstructor;
 public class LambdaExpression extends Expression {
 	public final List<Token> parameters;
 	public final List<Statement> body;
+	public int slotCount = 0;
+	public List<Capture> captures;
+	public List<Integer> sharedParameters;
+	public FunctionPrototype prototype;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitLambdaExpression(this);
@@ -2,6 +2,8 @@ package org.example.lox.ast.expression;
 
 import org.example.lox.Token;
 
+import org.example.lox.PropertyCache;
+
 import org.example.lox.ast.Visitor;
 
 
@@ -12,6 +14,7 @@ public class SetExpression extends Expression {
 	public final Expression object;
 	public final Token name;
 	public final Expression value;
+	public PropertyCache cache;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitSetExpression(this);
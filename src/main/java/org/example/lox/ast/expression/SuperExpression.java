@@ -13,6 +13,10 @@ import lombok.RequiredArgsConstructor;
 public class SuperExpression extends Expression {
 	public final Token keyword;
 	public final Token method;
+	public int depth = -1;
+	public int slot = -1;
+	public int thisDepth = -1;
+	public int thisSlot = -1;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitSuperExpression(this);
@@ -10,6 +10,8 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class ThisExpression extends Expression {
 	public final Token keyword;
+	public int depth = -1;
+	public int slot = -1;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitThisExpression(this);
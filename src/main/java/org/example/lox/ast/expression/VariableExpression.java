@@ -2,6 +2,8 @@ package org.example.lox.ast.expression;
 
 import org.example.lox.Token;
 
+import org.example.lox.ast.statement.VariableStatement;
+
 import org.example.lox.ast.Visitor;
 
 
@@ -10,6 +12,10 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class VariableExpression extends Expression {
 	public final Token token;
+	public int depth = -1;
+	public int slot = -1;
+	public VariableStatement declaration;
+	public boolean shared = false;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitVariableExpression(this);
@@ -10,6 +10,8 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class BlockStatement extends Statement {
 	public final List<Statement> statements;
+	public int slotCount = 0;
+	public boolean allocatesEnvironment = false;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitBlockStatement(this);
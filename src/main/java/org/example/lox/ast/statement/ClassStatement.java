@@ -19,6 +19,8 @@ public class ClassStatement extends Statement {
 	public final VariableExpression superclass;
 	public final List<FunctionStatement> methods;
 	public final List<FunctionStatement> classMethods;
+	public int slot = -1;
+	public boolean shared = false;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitClassStatement(this);
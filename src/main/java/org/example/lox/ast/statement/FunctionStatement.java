@@ -8,6 +8,14 @@ import org.example.lox.Token;
 
 import java.util.List;
 
+import java.util.List;
+
+import org.example.lox.Capture;
+
+import java.util.List;
+
+import org.example.lox.FunctionPrototype;
+
 import org.example.lox.ast.Visitor;
 
 
@@ -18,6 +26,12 @@ public class FunctionStatement extends Statement {
 	public final Token token;
 	public final List<Token> parameters;
 	public final List<Statement> body;
+	public int slot = -1;
+	public int slotCount = 0;
+	public boolean shared = false;
+	public List<Capture> captures;
+	public List<Integer> sharedParameters;
+	public FunctionPrototype prototype;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitFunctionStatement(this);
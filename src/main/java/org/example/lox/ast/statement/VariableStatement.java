@@ -13,6 +13,9 @@ import lombok.RequiredArgsConstructor;
 public class VariableStatement extends Statement {
 	public final Token token;
 	public final Expression expression;
+	public int slot = -1;
+	public int assignmentCount = 0;
+	public boolean shared = false;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitVariableStatement(this);
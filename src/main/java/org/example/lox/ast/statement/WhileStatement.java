@@ -4,6 +4,8 @@ import org.example.lox.ast.expression.Expression;
 
 import org.example.lox.ast.expression.Expression;
 
+import org.example.lox.CountedLoop;
+
 import org.example.lox.ast.Visitor;
 
 
@@ -14,6 +16,7 @@ public class WhileStatement extends Statement {
 	public final Expression condition;
 	public final Statement body;
 	public final Expression increment;
+	public CountedLoop countedLoop;
 
 	public <R> R accept(Visitor<R> visitor) {
 		return visitor.visitWhileStatement(this);
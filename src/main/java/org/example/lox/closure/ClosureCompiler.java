@@ -0,0 +1,858 @@
+package org.example.lox.closure;
+
+import lombok.RequiredArgsConstructor;
+import org.example.lox.*;
+import org.example.lox.ast.Visitor;
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+import org.example.lox.closure.node.*;
+import org.example.lox.exception.RuntimeError;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class ClosureCompiler implements Visitor<Object> {
+    private final Interpreter interpreter;
+
+    public StatementNode compile(List<Statement> statements) {
+        if (statements.size() == 1 && statements.get(0) instanceof ExpressionStatement expressionStatement)
+            return compilePrint(expressionStatement.expression);
+
+        return compileSequence(statements);
+    }
+
+    @Override
+    public ExpressionNode visitUnaryExpression(UnaryExpression unaryExpression) {
+        ExpressionNode right = compile(unaryExpression.right);
+        Token operator = unaryExpression.operator;
+
+        switch (operator.type) {
+            case MINUS -> {
+                return new NegateNode(right, operator);
+            }
+
+            case EXCLAMATION_MARK -> {
+                return environment -> !Interpreter.isTrue(right.evaluate(environment));
+            }
+
+            default -> {
+                return environment -> {
+                    right.evaluate(environment);
+                    return null;
+                };
+            }
+        }
+    }
+
+    @Override
+    public ExpressionNode visitBinaryExpression(BinaryExpression binaryExpression) {
+        ExpressionNode left = compile(binaryExpression.left);
+        ExpressionNode right = compile(binaryExpression.right);
+        Token operator = binaryExpression.operator;
+
+        switch (operator.type) {
+            case PLUS -> {
+                return new AddNode(left, right, operator);
+            }
+
+            case MINUS -> {
+                return new SubtractNode(left, right, operator);
+            }
+
+            case ASTERISK -> {
+                return new MultiplyNode(left, right, operator);
+            }
+
+            case SLASH -> {
+                return new DivideNode(left, right, operator);
+            }
+
+            case LESS -> {
+                return new LessNode(left, right, operator);
+            }
+
+            case LESS_EQUAL -> {
+                return new LessEqualNode(left, right, operator);
+            }
+
+            case GREATER -> {
+                return new GreaterNode(left, right, operator);
+            }
+
+            case GREATER_EQUAL -> {
+                return new GreaterEqualNode(left, right, operator);
+            }
+
+            case EQUAL_EQUAL -> {
+                return new EqualNode(left, right, operator, false);
+            }
+
+            case EXCLAMATION_MARK_EQUAL -> {
+                return new EqualNode(left, right, operator, true);
+            }
+
+            default -> {
+                return environment -> {
+                    left.evaluate(environment);
+                    right.evaluate(environment);
+                    return null;
+                };
+            }
+        }
+    }
+
+    @Override
+    public ExpressionNode visitGroupingExpression(GroupingExpression groupingExpression) {
+        return compile(groupingExpression.expression);
+    }
+
+    @Override
+    public ExpressionNode visitLiteralExpression(LiteralExpression literalExpression) {
+        Object value = literalExpression.value;
+        return environment -> value;
+    }
+
+    @Override
+    public ExpressionNode visitVariableExpression(VariableExpression variableExpression) {
+        ExpressionNode lookUp = compileLookUp(variableExpression.token, variableExpression.depth, variableExpression.slot);
+        if (!variableExpression.shared)
+            return lookUp;
+
+        return environment -> ((Cell) lookUp.evaluate(environment)).value;
+    }
+
+    @Override
+    public ExpressionNode visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+        ExpressionNode value = compile(assignmentExpression.expression);
+        int depth = assignmentExpression.depth;
+        int slot = assignmentExpression.slot;
+
+        if (depth == -1) {
+            GlobalEnvironment globals = interpreter.globals;
+            Token token = assignmentExpression.token;
+            return environment -> {
+                Object result = value.evaluate(environment);
+                globals.assign(slot, token, result);
+                return result;
+            };
+        }
+
+        if (assignmentExpression.shared) {
+            return environment -> {
+                Object result = value.evaluate(environment);
+                ((Cell) environment.getAt(depth, slot)).value = result;
+                return result;
+            };
+        }
+
+        if (depth == 0) {
+            return environment -> {
+                Object result = value.evaluate(environment);
+                environment.assign(slot, result);
+                return result;
+            };
+        }
+
+        return environment -> {
+            Object result = value.evaluate(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExpressionNode visitLogicalExpression(LogicalExpression logicalExpression) {
+        ExpressionNode left = compile(logicalExpression.left);
+        ExpressionNode right = compile(logicalExpression.right);
+
+        if (logicalExpression.operator.type == TokenType.OR) {
+            return environment -> {
+                Object value = left.evaluate(environment);
+                if (Interpreter.isTrue(value)) return value;
+                return right.evaluate(environment);
+            };
+        }
+
+        return environment -> {
+            Object value = left.evaluate(environment);
+            if (!Interpreter.isTrue(value)) return value;
+            return right.evaluate(environment);
+        };
+    }
+
+    @Override
+    public ExpressionNode visitCallExpression(CallExpression callExpression) {
+        if (callExpression.callee instanceof GetExpression getExpression)
+            return compileInvoke(getExpression, callExpression);
+
+        ExpressionNode callee = compile(callExpression.callee);
+        ExpressionNode[] arguments = compileAll(callExpression.arguments);
+        Token parenthesis = callExpression.rightParenthesis;
+
+        switch (arguments.length) {
+            case 0 -> {
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    return Interpreter.checkCallable(function, 0, parenthesis).call0(interpreter);
+                };
+            }
+
+            case 1 -> {
+                ExpressionNode first = arguments[0];
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    Object a = first.evaluate(environment);
+                    return Interpreter.checkCallable(function, 1, parenthesis).call1(interpreter, a);
+                };
+            }
+
+            case 2 -> {
+                ExpressionNode first = arguments[0];
+                ExpressionNode second = arguments[1];
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    Object a = first.evaluate(environment);
+                    Object b = second.evaluate(environment);
+                    return Interpreter.checkCallable(function, 2, parenthesis).call2(interpreter, a, b);
+                };
+            }
+
+            case 3 -> {
+                ExpressionNode first = arguments[0];
+                ExpressionNode second = arguments[1];
+                ExpressionNode third = arguments[2];
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    Object a = first.evaluate(environment);
+                    Object b = second.evaluate(environment);
+                    Object c = third.evaluate(environment);
+                    return Interpreter.checkCallable(function, 3, parenthesis).call3(interpreter, a, b, c);
+                };
+            }
+
+            default -> {
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    Object[] values = evaluateAll(arguments, environment);
+                    return Interpreter.checkCallable(function, values.length, parenthesis).call(interpreter, values);
+                };
+            }
+        }
+    }
+
+    private ExpressionNode compileInvoke(GetExpression getExpression, CallExpression callExpression) {
+        ExpressionNode object = compile(getExpression.object);
+        ExpressionNode[] arguments = compileAll(callExpression.arguments);
+        Token name = getExpression.name;
+        PropertyCache cache = getExpression.cache;
+        Token parenthesis = callExpression.rightParenthesis;
+
+        switch (arguments.length) {
+            case 0 -> {
+                return environment -> {
+                    LoxInstance instance = receiver(object.evaluate(environment), name);
+                    LoxFunction method = cache.lookUpMethod(instance);
+                    if (method == null)
+                        return callField(cache.get(instance), arguments, environment, parenthesis);
+
+                    Interpreter.checkArity(method, 0, parenthesis);
+                    return method.invoke0(interpreter, instance);
+                };
+            }
+
+            case 1 -> {
+                ExpressionNode first = arguments[0];
+                return environment -> {
+                    LoxInstance instance = receiver(object.evaluate(environment), name);
+                    LoxFunction method = cache.lookUpMethod(instance);
+                    if (method == null)
+                        return callField(cache.get(instance), arguments, environment, parenthesis);
+
+                    Object a = first.evaluate(environment);
+                    Interpreter.checkArity(method, 1, parenthesis);
+                    return method.invoke1(interpreter, instance, a);
+                };
+            }
+
+            case 2 -> {
+                ExpressionNode first = arguments[0];
+                ExpressionNode second = arguments[1];
+                return environment -> {
+                    LoxInstance instance = receiver(object.evaluate(environment), name);
+                    LoxFunction method = cache.lookUpMethod(instance);
+                    if (method == null)
+                        return callField(cache.get(instance), arguments, environment, parenthesis);
+
+                    Object a = first.evaluate(environment);
+                    Object b = second.evaluate(environment);
+                    Interpreter.checkArity(method, 2, parenthesis);
+                    return method.invoke2(interpreter, instance, a, b);
+                };
+            }
+
+            case 3 -> {
+                ExpressionNode first = arguments[0];
+                ExpressionNode second = arguments[1];
+                ExpressionNode third = arguments[2];
+                return environment -> {
+                    LoxInstance instance = receiver(object.evaluate(environment), name);
+                    LoxFunction method = cache.lookUpMethod(instance);
+                    if (method == null)
+                        return callField(cache.get(instance), arguments, environment, parenthesis);
+
+                    Object a = first.evaluate(environment);
+                    Object b = second.evaluate(environment);
+                    Object c = third.evaluate(environment);
+                    Interpreter.checkArity(method, 3, parenthesis);
+                    return method.invoke3(interpreter, instance, a, b, c);
+                };
+            }
+
+            default -> {
+                return environment -> {
+                    LoxInstance instance = receiver(object.evaluate(environment), name);
+                    LoxFunction method = cache.lookUpMethod(instance);
+                    if (method == null)
+                        return callField(cache.get(instance), arguments, environment, parenthesis);
+
+                    Object[] values = evaluateAll(arguments, environment);
+                    Interpreter.checkArity(method, values.length, parenthesis);
+                    return method.invoke(interpreter, instance, values);
+                };
+            }
+        }
+    }
+
+    private static LoxInstance receiver(Object object, Token name) {
+        if (object instanceof LoxInstance instance)
+            return instance;
+
+        throw new RuntimeError(name, "Only instances can have properties");
+    }
+
+    private Object callField(Object function, ExpressionNode[] arguments, Environment environment, Token parenthesis) {
+        Object[] values = evaluateAll(arguments, environment);
+        return Interpreter.checkCallable(function, values.length, parenthesis).call(interpreter, values);
+    }
+
+    private static Object[] evaluateAll(ExpressionNode[] arguments, Environment environment) {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++)
+            values[i] = arguments[i].evaluate(environment);
+
+        return values;
+    }
+
+    @Override
+    public ExpressionNode visitGetExpression(GetExpression getExpression) {
+        ExpressionNode object = compile(getExpression.object);
+        Token name = getExpression.name;
+        PropertyCache cache = getExpression.cache;
+
+        return environment -> {
+            if (object.evaluate(environment) instanceof LoxInstance instance)
+                return cache.get(instance);
+
+            throw new RuntimeError(name, "Only instances can have properties");
+        };
+    }
+
+    @Override
+    public ExpressionNode visitSetExpression(SetExpression setExpression) {
+        ExpressionNode object = compile(setExpression.object);
+        ExpressionNode value = compile(setExpression.value);
+        Token name = setExpression.name;
+        PropertyCache cache = setExpression.cache;
+
+        return environment -> {
+            if (object.evaluate(environment) instanceof LoxInstance instance) {
+                Object result = value.evaluate(environment);
+                cache.set(instance, result);
+                return result;
+            }
+
+            throw new RuntimeError(name, "Only instances can have fields");
+        };
+    }
+
+    @Override
+    public ExpressionNode visitThisExpression(ThisExpression thisExpression) {
+        return compileLookUp(thisExpression.keyword, thisExpression.depth, thisExpression.slot);
+    }
+
+    @Override
+    public ExpressionNode visitSuperExpression(SuperExpression superExpression) {
+        int depth = superExpression.depth;
+        int slot = superExpression.slot;
+        int thisDepth = superExpression.thisDepth;
+        int thisSlot = superExpression.thisSlot;
+        Token method = superExpression.method;
+
+        return environment -> {
+            LoxClass superclass = (LoxClass) environment.getAt(depth, slot);
+            LoxInstance object = (LoxInstance) environment.getAt(thisDepth, thisSlot);
+            LoxFunction function = superclass.findMethod(method.lexeme);
+            if (function == null)
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'");
+
+            return function.bind(object);
+        };
+    }
+
+    @Override
+    public ExpressionNode visitLambdaExpression(LambdaExpression lambdaExpression) {
+        FunctionPrototype prototype = FunctionPrototype.of(lambdaExpression);
+        StatementNode body = compileSequence(lambdaExpression.body);
+        List<Capture> captures = prototype.captures;
+        return environment ->
+                new ClosureFunction(prototype, environment.capture(captures), false, body);
+    }
+
+    @Override
+    public ExpressionNode visitInvariantExpression(InvariantExpression invariantExpression) {
+        ExpressionNode expression = compile(invariantExpression.expression);
+        int depth = invariantExpression.depth;
+        int slot = invariantExpression.slot;
+
+        return environment -> {
+            Object value = environment.getAt(depth, slot);
+            if (value == null) {
+                value = expression.evaluate(environment);
+                environment.assignAt(depth, slot, value);
+            }
+
+            return value;
+        };
+    }
+
+    // A body inlined as a block runs as a plain call through the callee's own compiled body;
+    // an expression body is compiled in place behind the same guard the Interpreter uses
+    @Override
+    public ExpressionNode visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        CallExpression callExpression = inlinedCallExpression.call;
+        if (inlinedCallExpression.body == null)
+            return compile(callExpression);
+
+        FunctionStatement function = inlinedCallExpression.function;
+        ExpressionNode body = compile(inlinedCallExpression.body);
+        ExpressionNode[] arguments = compileAll(callExpression.arguments);
+        Token parenthesis = callExpression.rightParenthesis;
+        int slot = inlinedCallExpression.slot;
+
+        if (callExpression.callee instanceof GetExpression getExpression) {
+            ExpressionNode object = compile(getExpression.object);
+            Token name = getExpression.name;
+            PropertyCache cache = getExpression.cache;
+
+            return environment -> {
+                LoxInstance instance = receiver(object.evaluate(environment), name);
+                LoxFunction method = cache.lookUpMethod(instance);
+                if (method == null)
+                    return callField(cache.get(instance), arguments, environment, parenthesis);
+
+                if (!method.isDeclaredBy(function)) {
+                    Object[] values = evaluateAll(arguments, environment);
+                    Interpreter.checkArity(method, values.length, parenthesis);
+                    return method.invoke(interpreter, instance, values);
+                }
+
+                environment.define(slot, instance);
+                for (int i = 0; i < arguments.length; i++)
+                    environment.define(slot + 1 + i, arguments[i].evaluate(environment));
+
+                return body.evaluate(environment);
+            };
+        }
+
+        ExpressionNode callee = compile(callExpression.callee);
+        return environment -> {
+            Object value = callee.evaluate(environment);
+            if (!(value instanceof LoxFunction loxFunction) || !loxFunction.isDeclaredBy(function)) {
+                Object[] values = evaluateAll(arguments, environment);
+                return Interpreter.checkCallable(value, values.length, parenthesis).call(interpreter, values);
+            }
+
+            for (int i = 0; i < arguments.length; i++)
+                environment.define(slot + i, arguments[i].evaluate(environment));
+
+            return body.evaluate(environment);
+        };
+    }
+
+    @Override
+    public StatementNode visitExpressionStatement(ExpressionStatement expressionStatement) {
+        ExpressionNode expression = compile(expressionStatement.expression);
+        return environment -> {
+            expression.evaluate(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public StatementNode visitPrintStatement(PrintStatement printStatement) {
+        return compilePrint(printStatement.expression);
+    }
+
+    @Override
+    public StatementNode visitVariableStatement(VariableStatement variableStatement) {
+        ExpressionNode value = variableStatement.expression != null
+                ? compile(variableStatement.expression)
+                : environment -> null;
+
+        if (variableStatement.shared)
+            return compileDefineShared(variableStatement.slot, value);
+
+        return compileDefine(variableStatement.slot, variableStatement.token, value);
+    }
+
+    @Override
+    public StatementNode visitBlockStatement(BlockStatement blockStatement) {
+        StatementNode body = compileSequence(blockStatement.statements);
+        if (!blockStatement.allocatesEnvironment)
+            return body;
+
+        int slotCount = blockStatement.slotCount;
+
+        return environment -> body.execute(new Environment(environment, slotCount));
+    }
+
+    @Override
+    public StatementNode visitIfStatement(IfStatement ifStatement) {
+        ExpressionNode condition = compile(ifStatement.condition);
+        StatementNode thenBranch = compile(ifStatement.thenBranch);
+
+        if (ifStatement.elseBranch == null) {
+            return environment -> {
+                if (Interpreter.isTrue(condition.evaluate(environment)))
+                    return thenBranch.execute(environment);
+
+                return null;
+            };
+        }
+
+        StatementNode elseBranch = compile(ifStatement.elseBranch);
+        return environment -> {
+            if (Interpreter.isTrue(condition.evaluate(environment)))
+                return thenBranch.execute(environment);
+            else
+                return elseBranch.execute(environment);
+        };
+    }
+
+    @Override
+    public StatementNode visitWhileStatement(WhileStatement whileStatement) {
+        ExpressionNode condition = compile(whileStatement.condition);
+        StatementNode body = compile(whileStatement.body);
+        ExpressionNode increment = whileStatement.increment != null
+                ? compile(whileStatement.increment)
+                : environment -> null;
+
+        StatementNode loop = environment -> {
+            while (Interpreter.isTrue(condition.evaluate(environment))) {
+                Completion completion = body.execute(environment);
+                if (completion == Completion.BREAK) break;
+                if (completion == Completion.RETURN) return completion;
+
+                increment.evaluate(environment);
+            }
+
+            return null;
+        };
+
+        if (whileStatement.countedLoop != null)
+            return compileCountedLoop(whileStatement, whileStatement.countedLoop, loop);
+
+        return loop;
+    }
+
+    private StatementNode compileCountedLoop(WhileStatement whileStatement, CountedLoop loop, StatementNode general) {
+        ExpressionNode limit = compile(loop.limit);
+        StatementNode body = compile(whileStatement.body);
+        int slot = loop.slot;
+        double step = loop.step;
+        boolean invariantLimit = loop.invariantLimit;
+
+        return environment -> {
+            loop.clearInvariants(environment);
+            if (!(environment.get(slot) instanceof Double start))
+                return general.execute(environment);
+
+            double index = start;
+            double bound = invariantLimit ? loop.limit(limit.evaluate(environment)) : 0;
+
+            while (true) {
+                if (!invariantLimit)
+                    bound = loop.limit(limit.evaluate(environment));
+
+                if (!loop.test(index, bound)) break;
+
+                Completion completion = body.execute(environment);
+                if (completion == Completion.BREAK) break;
+                if (completion == Completion.RETURN) return completion;
+
+                index += step;
+                environment.assign(slot, index);
+            }
+
+            return null;
+        };
+    }
+
+    @Override
+    public StatementNode visitBreakStatement(BreakStatement breakStatement) {
+        return environment -> Completion.BREAK;
+    }
+
+    @Override
+    public StatementNode visitContinueStatement(ContinueStatement continueStatement) {
+        return environment -> Completion.CONTINUE;
+    }
+
+    @Override
+    public StatementNode visitFunctionStatement(FunctionStatement functionStatement) {
+        FunctionPrototype prototype = FunctionPrototype.of(functionStatement);
+        StatementNode body = compileSequence(functionStatement.body);
+        List<Capture> captures = prototype.captures;
+        ExpressionNode function = environment ->
+                new ClosureFunction(prototype, environment.capture(captures), false, body);
+
+        if (functionStatement.shared)
+            return compileDefineShared(functionStatement.slot, function);
+
+        return compileDefine(functionStatement.slot, functionStatement.token, function);
+    }
+
+    @Override
+    public StatementNode visitReturnStatement(ReturnStatement returnStatement) {
+        if (returnStatement.value == null) {
+            return environment -> interpreter.returnWith(null);
+        }
+
+        if (interpreter.hasTailCalls() && returnStatement.value instanceof CallExpression callExpression)
+            return compileTailCall(callExpression);
+
+        // Running an inlined body here would nest the calls it makes in tail position
+        if (interpreter.hasTailCalls() && returnStatement.value instanceof InlinedCallExpression inlined && inlined.body == null)
+            return compileTailCall(inlined.call);
+
+        ExpressionNode value = compile(returnStatement.value);
+        return environment -> interpreter.returnWith(value.evaluate(environment));
+    }
+
+    private StatementNode compileTailCall(CallExpression callExpression) {
+        ExpressionNode[] arguments = compileAll(callExpression.arguments);
+        Token parenthesis = callExpression.rightParenthesis;
+
+        if (callExpression.callee instanceof GetExpression getExpression) {
+            ExpressionNode object = compile(getExpression.object);
+            Token name = getExpression.name;
+            PropertyCache cache = getExpression.cache;
+
+            return environment -> {
+                LoxInstance instance = receiver(object.evaluate(environment), name);
+                LoxFunction method = cache.lookUpMethod(instance);
+                if (method == null)
+                    return tailCall(cache.get(instance), arguments, environment, parenthesis);
+
+                Object[] values = evaluateAll(arguments, environment);
+                Interpreter.checkArity(method, values.length, parenthesis);
+                return interpreter.tailCall(method, instance, values);
+            };
+        }
+
+        ExpressionNode callee = compile(callExpression.callee);
+        return environment -> tailCall(callee.evaluate(environment), arguments, environment, parenthesis);
+    }
+
+    private Completion tailCall(Object function, ExpressionNode[] arguments, Environment environment, Token parenthesis) {
+        Object[] values = evaluateAll(arguments, environment);
+        LoxCallable callable = Interpreter.checkCallable(function, values.length, parenthesis);
+        if (callable instanceof LoxFunction loxFunction)
+            return interpreter.tailCall(loxFunction, null, values);
+
+        return interpreter.returnWith(callable.call(interpreter, values));
+    }
+
+    @Override
+    public StatementNode visitClassStatement(ClassStatement classStatement) {
+        ExpressionNode superclassNode = classStatement.superclass != null
+                ? compile(classStatement.superclass)
+                : null;
+
+        Token name = classStatement.name;
+        Token superclassToken = classStatement.superclass != null ? classStatement.superclass.token : null;
+        int slot = classStatement.slot;
+        boolean shared = classStatement.shared;
+        GlobalEnvironment globals = interpreter.globals;
+
+        List<FunctionStatement> methods = classStatement.methods;
+        FunctionPrototype[] methodPrototypes = prototypes(methods);
+        StatementNode[] methodBodies = compileBodies(methods);
+        List<FunctionStatement> classMethods = classStatement.classMethods;
+        FunctionPrototype[] classMethodPrototypes = prototypes(classMethods);
+        StatementNode[] classMethodBodies = compileBodies(classMethods);
+
+        return environment -> {
+            Object superclass = null;
+            if (superclassNode != null) {
+                superclass = superclassNode.evaluate(environment);
+                if (!(superclass instanceof LoxClass))
+                    throw new RuntimeError(superclassToken, "Superclass must be a class");
+            }
+
+            Cell cell = shared ? new Cell(null) : null;
+            if (shared)
+                environment.define(slot, cell);
+            else if (slot == -1)
+                globals.define(name.lexeme, null);
+
+            Environment methodEnvironment = environment;
+            if (superclass != null) {
+                methodEnvironment = new Environment(environment, 1);
+                methodEnvironment.define(0, superclass);
+            }
+
+            Map<String, LoxFunction> methodFunctions = new HashMap<>();
+            for (int i = 0; i < methods.size(); i++) {
+                FunctionPrototype method = methodPrototypes[i];
+                boolean isInitializer = method.name.equals("init");
+                methodFunctions.put(
+                        method.name,
+                        new ClosureFunction(
+                                method,
+                                methodEnvironment.capture(method.captures),
+                                isInitializer,
+                                methodBodies[i]
+                        )
+                );
+            }
+
+            Map<Token, LoxFunction> classMethodFunctions = new HashMap<>();
+            for (int i = 0; i < classMethods.size(); i++) {
+                FunctionPrototype method = classMethodPrototypes[i];
+                classMethodFunctions.put(
+                        classMethods.get(i).token,
+                        new ClosureFunction(
+                                method,
+                                methodEnvironment.capture(method.captures),
+                                false,
+                                classMethodBodies[i]
+                        )
+                );
+            }
+
+            LoxClass clazz = new LoxClass(name.lexeme, (LoxClass) superclass, methodFunctions, classMethodFunctions);
+
+            if (shared)
+                cell.value = clazz;
+            else if (slot == -1)
+                globals.define(name.lexeme, clazz);
+            else
+                environment.define(slot, clazz);
+
+            return null;
+        };
+    }
+
+    private ExpressionNode compileLookUp(Token token, int depth, int slot) {
+        if (depth == -1) {
+            GlobalEnvironment globals = interpreter.globals;
+            return environment -> globals.get(slot, token);
+        }
+
+        if (depth == 0)
+            return environment -> environment.get(slot);
+
+        if (depth == 1)
+            return environment -> environment.parent.get(slot);
+
+        return environment -> environment.getAt(depth, slot);
+    }
+
+    private StatementNode compileDefine(int slot, Token token, ExpressionNode value) {
+        if (slot == -1) {
+            GlobalEnvironment globals = interpreter.globals;
+            return environment -> {
+                globals.define(token.lexeme, value.evaluate(environment));
+                return null;
+            };
+        }
+
+        return environment -> {
+            environment.define(slot, value.evaluate(environment));
+            return null;
+        };
+    }
+
+    // The Cell is in the slot before the value is computed, a closure created meanwhile captures it
+    private StatementNode compileDefineShared(int slot, ExpressionNode value) {
+        return environment -> {
+            Cell cell = new Cell(null);
+            environment.define(slot, cell);
+            cell.value = value.evaluate(environment);
+            return null;
+        };
+    }
+
+    private StatementNode compilePrint(Expression expression) {
+        ExpressionNode value = compile(expression);
+        return environment -> {
+            System.out.println(Interpreter.stringify(value.evaluate(environment)));
+            return null;
+        };
+    }
+
+    private StatementNode compileSequence(List<Statement> statements) {
+        StatementNode[] nodes = new StatementNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = compile(statements.get(i));
+
+        if (nodes.length == 1)
+            return nodes[0];
+
+        return environment -> {
+            for (StatementNode node : nodes) {
+                Completion completion = node.execute(environment);
+                if (completion != null) return completion;
+            }
+
+            return null;
+        };
+    }
+
+    private static FunctionPrototype[] prototypes(List<FunctionStatement> functions) {
+        FunctionPrototype[] prototypes = new FunctionPrototype[functions.size()];
+        for (int i = 0; i < prototypes.length; i++)
+            prototypes[i] = FunctionPrototype.of(functions.get(i));
+
+        return prototypes;
+    }
+
+    private StatementNode[] compileBodies(List<FunctionStatement> functions) {
+        StatementNode[] bodies = new StatementNode[functions.size()];
+        for (int i = 0; i < bodies.length; i++)
+            bodies[i] = compileSequence(functions.get(i).body);
+
+        return bodies;
+    }
+
+    private ExpressionNode[] compileAll(List<Expression> expressions) {
+        ExpressionNode[] nodes = new ExpressionNode[expressions.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = compile(expressions.get(i));
+
+        return nodes;
+    }
+
+    // The visit methods return an ExpressionNode for each expression and a StatementNode for each
+    // statement; the Visitor's one result type covers both
+    private ExpressionNode compile(Expression expression) {
+        return (ExpressionNode) expression.accept(this);
+    }
+
+    private StatementNode compile(Statement statement) {
+        return (StatementNode) statement.accept(this);
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.lox.closure;
+
+import org.example.lox.Completion;
+import org.example.lox.Environment;
+import org.example.lox.FunctionPrototype;
+import org.example.lox.Interpreter;
+import org.example.lox.LoxFunction;
+
+public class ClosureFunction extends LoxFunction {
+    private final StatementNode body;
+
+    public ClosureFunction(
+            FunctionPrototype prototype,
+            Environment closure,
+            boolean isInitializer,
+            StatementNode body
+    ) {
+        super(prototype, closure, isInitializer);
+        this.body = body;
+    }
+
+    @Override
+    protected Completion run(Interpreter interpreter, Environment environment) {
+        return body.execute(environment);
+    }
+}
@@ -0,0 +1,8 @@
+package org.example.lox.closure;
+
+import org.example.lox.Environment;
+
+@FunctionalInterface
+public interface ExpressionNode {
+    Object evaluate(Environment environment);
+}
@@ -0,0 +1,9 @@
+package org.example.lox.closure;
+
+import org.example.lox.Completion;
+import org.example.lox.Environment;
+
+@FunctionalInterface
+public interface StatementNode {
+    Completion execute(Environment environment);
+}
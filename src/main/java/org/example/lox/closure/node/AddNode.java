@@ -0,0 +1,46 @@
+package org.example.lox.closure.node;
+
+import org.example.lox.Environment;
+import org.example.lox.Rope;
+import org.example.lox.Token;
+import org.example.lox.closure.ExpressionNode;
+import org.example.lox.exception.RuntimeError;
+
+public class AddNode extends BinaryNode {
+    public AddNode(ExpressionNode left, ExpressionNode right, Token operator) {
+        super(left, right, operator);
+    }
+
+    @Override
+    public Object evaluate(Environment environment) {
+        Object a = left.evaluate(environment);
+        Object b = right.evaluate(environment);
+
+        switch (specialization) {
+            case NUMBER -> {
+                if (a instanceof Double x && b instanceof Double y) return x + y;
+            }
+
+            case STRING -> {
+                if (Rope.isString(a) && Rope.isString(b)) return Rope.concatenate(a, b);
+            }
+
+            case GENERIC -> {
+                return add(a, b);
+            }
+        }
+
+        respecialize(a, b);
+        return add(a, b);
+    }
+
+    private Object add(Object a, Object b) {
+        if (a instanceof Double x && b instanceof Double y)
+            return x + y;
+
+        if (Rope.isString(a) && (Rope.isString(b) || b instanceof Double) || a instanceof Double && Rope.isString(b))
+            return Rope.concatenate(a, b);
+
+        throw new RuntimeError(operator, "Unsupported operand types");
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.lox.closure.node;
+
+import org.example.lox.Rope;
+import org.example.lox.Token;
+import org.example.lox.closure.ExpressionNode;
+import org.example.lox.exception.RuntimeError;
+
+public abstract class BinaryNode implements ExpressionNode {
+    protected final ExpressionNode left;
+    protected final ExpressionNode right;
+    protected final Token operator;
+    protected Specialization specialization = Specialization.UNINITIALIZED;
+
+    protected BinaryNode(ExpressionNode left, ExpressionNode right, Token operator) {
+        this.left = left;
+        this.right = right;
+        this.operator = operator;
+    }
+
+    // Called whenever the fast path did not apply: the first evaluation picks a
+    // specialization from the observed operands, a failed guard falls back to generic
+    protected void respecialize(Object left, Object right) {
+        if (specialization != Specialization.UNINITIALIZED) {
+            specialization = Specialization.GENERIC;
+            return;
+        }
+
+        if (left instanceof Double && right instanceof Double)
+            specialization = Specialization.NUMBER;
+        else if (Rope.isString(left) && Rope.isString(right))
+            specialization = Specialization.STRING;
+        else
+            specialization = Specialization.GENERIC;
+    }
+
+    protected void checkNumberOperands(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers");
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.lox.closure.node;
+
+import org.example.lox.Environment;
+import org.example.lox.Token;
+import org.example.lox.closure.ExpressionNode;
+import org.example.lox.exception.RuntimeError;
+
+public class DivideNode extends BinaryNode {
+    public DivideNode(ExpressionNode left, ExpressionNode right, Token operator) {
+        super(left, right, operator);
+    }
+
+    @Override
+    public Object evaluate(Environment environment) {
+        Object a = left.evaluate(environment);
+        Object b = right.evaluate(environment);
+
+        if (specialization == Specialization.NUMBER && a instanceof Double x && b instanceof Double y && y != 0)
+            return x / y;
+
+        if (specialization != Specialization.NUMBER || !(a instanceof Double) || !(b instanceof Double))
+            respecialize(a, b);
+
+        checkNumberOperands(a, b);
+        if ((double) b == 0)
+            throw new RuntimeError(operator, "Division by zero");
+
+        return (double) a / (double) b;
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.lox.closure.node;
+
+import org.example.lox.Environment;
+import org.example.lox.Interpreter;
+import org.example.lox.Token;
+import org.example.lox.closure.ExpressionNode;
+
+public class EqualNode extends BinaryNode {
+    private final boolean negate;
+
+    public EqualNode(ExpressionNode left, ExpressionNode right, Token operator, boolean negate) {
+        super(left, right, operator);
+        this.negate = negate;
+    }
+
+    @Override
+    public Object evaluate(Environment environment) {
+        Object a = left.evaluate(environment);
+        Object b = right.evaluate(environment);
+
+        // Same semantics as Double.equals, without going through the boxes
+        if (specialization == Specialization.NUMBER && a instanceof Double x && b instanceof Double y)
+            return (Double.doubleToLongBits(x) == Double.doubleToLongBits(y)) != negate;
+
+        if (specialization == Specialization.UNINITIALIZED || specialization == Specialization.NUMBER)
+            respecialize(a, b);
+
+        return Interpreter.isEqual(a, b) != negate;
+    }
+}
@@ -0,0 +1,24 @@
+package org.example.lox.closure.node;
+
+import org.example.lox.Environment;
+import org.example.lox.Token;
+import org.example.lox.closure.ExpressionNode;
+
+public class GreaterEqualNode extends BinaryNode {
+    public GreaterEqualNode(ExpressionNode left, ExpressionNode right, Token operator) {
+        super(left, right, operator);
+    }
+
+    @Override
+    public Object evaluate(Environment environment) {
+        Object a = left.evaluate(environment);
+        Object b = right.evaluate(environment);
+
+        if (specialization == Specialization.NUMBER && a instanceof Double x && b instanceof Double y)
+            return x >= y;
+
+        respecialize(a, b);
+        checkNumberOperands(a, b);
+        return (double) a >= (double) b;
+    }
+}
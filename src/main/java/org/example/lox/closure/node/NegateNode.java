@@ -0,0 +1,32 @@
+package org.example.lox.closure.node;
+
+import org.example.lox.Environment;
+import org.example.lox.Token;
+import org.example.lox.closure.ExpressionNode;
+import org.example.lox.exception.RuntimeError;
+
+public class NegateNode implements ExpressionNode {
+    private final ExpressionNode right;
+    private final Token operator;
+    private Specialization specialization = Specialization.UNINITIALIZED;
+
+    public NegateNode(ExpressionNode right, Token operator) {
+        this.right = right;
+        this.operator = operator;
+    }
+
+    @Override
+    public Object evaluate(Environment environment) {
+        Object value = right.evaluate(environment);
+
+        if (specialization == Specialization.NUMBER && value instanceof Double number)
+            return -number;
+
+        specialization = specialization == Specialization.UNINITIALIZED && value instanceof Double
+                ? Specialization.NUMBER
+                : Specialization.GENERIC;
+
+        if (value instanceof Double number) return -number;
+        throw new RuntimeError(operator, "Operand must be number");
+    }
+}
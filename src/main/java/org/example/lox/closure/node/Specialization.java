@@ -0,0 +1,8 @@
+package org.example.lox.closure.node;
+
+public enum Specialization {
+    UNINITIALIZED,
+    NUMBER,
+    STRING,
+    GENERIC
+}
@@ -1,7 +0,0 @@
-package org.example.lox.exception;
-
-public class Break extends RuntimeException {
-    public Break() {
-        super(null, null, false, false);
-    }
-}
@@ -4,9 +4,17 @@ import org.example.lox.Token;
 
 public class RuntimeError extends RuntimeException {
     public final Token token;
+    public final int line;
 
     public RuntimeError(Token operator, String message) {
         super(message);
         this.token = operator;
+        this.line = operator.line;
+    }
+
+    public RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 }
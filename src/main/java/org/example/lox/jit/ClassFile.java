@@ -0,0 +1,205 @@
+package org.example.lox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the class file format for the JitCompiler: a final class with static fields and
+// static methods. It is written as a version 49 class, which carries no stack map frames, so the
+// verifier infers the types at branch targets itself and Code only has to track the stack depth
+class ClassFile {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    final String name;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolSize = 1;
+
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFile(String name) {
+        this.name = name;
+    }
+
+    void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        });
+        fields.add(bytes.toByteArray());
+    }
+
+    Code addMethod(int access, String name, String descriptor, int parameterSlots) {
+        return new Code(this, access, name, descriptor, parameterSlots);
+    }
+
+    // Called by Code once the method is complete
+    void addMethod(int access, String name, String descriptor, Code code, byte[] bytecode) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + bytecode.length);
+            out.writeShort(code.maxStack());
+            out.writeShort(code.maxLocals());
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0);
+            out.writeShort(0);
+        });
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classReference(name);
+        int superClass = classReference("java/lang/Object");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolSize);
+            poolBytes.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+
+            out.writeShort(0);
+        });
+        return bytes.toByteArray();
+    }
+
+    int utf8(String text) {
+        // writeUTF takes at most 65535 bytes, which this many characters always fit in
+        if (text.length() > 0xFFFF / 3)
+            throw new JitCompiler.Unsupported("String constant too long");
+
+        return constant("U" + text, 1, () -> {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(text);
+        });
+    }
+
+    int integer(int value) {
+        return constant("I" + value, 1, () -> {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        });
+    }
+
+    // Keyed by the bits, so -0.0 and 0.0 stay apart
+    int doubleConstant(double value) {
+        return constant("D" + Double.doubleToRawLongBits(value), 2, () -> {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeDouble(value);
+        });
+    }
+
+    int string(String value) {
+        int text = utf8(value);
+        return constant("S" + value, 1, () -> {
+            pool.writeByte(CONSTANT_STRING);
+            pool.writeShort(text);
+        });
+    }
+
+    int classReference(String internalName) {
+        int text = utf8(internalName);
+        return constant("C" + internalName, 1, () -> {
+            pool.writeByte(CONSTANT_CLASS);
+            pool.writeShort(text);
+        });
+    }
+
+    int field(String owner, String name, String descriptor) {
+        return member(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int method(String owner, String name, String descriptor) {
+        return member(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classReference(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + " " + descriptor, 1, () -> {
+            pool.writeByte(CONSTANT_NAME_AND_TYPE);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+        });
+
+        return constant(tag + owner + "." + name + " " + descriptor, 1, () -> {
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+        });
+    }
+
+    private int constant(String key, int size, Writer writer) {
+        Integer index = poolIndices.get(key);
+        if (index != null)
+            return index;
+
+        write(writer);
+        index = poolSize;
+        poolSize += size;
+        if (poolSize > 0xFFFF)
+            throw new JitCompiler.Unsupported("Constant pool overflow");
+
+        poolIndices.put(key, index);
+        return index;
+    }
+
+    private interface Writer {
+        void write() throws IOException;
+    }
+
+    private static void write(Writer writer) {
+        try {
+            writer.write();
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
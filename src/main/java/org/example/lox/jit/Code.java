@@ -0,0 +1,310 @@
+package org.example.lox.jit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Bytecode of one method. Every instruction goes through a method that knows its effect on the
+// operand stack, which gives max_stack; after a goto or return the code is unreachable until a
+// label some jump targets is placed, and the stack is as the jump left it
+class Code {
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int ICONST_1 = 4;
+    static final int DCONST_0 = 14;
+    static final int POP = 87;
+    static final int POP2 = 88;
+    static final int DUP = 89;
+    static final int DUP2 = 92;
+    static final int DADD = 99;
+    static final int DSUB = 103;
+    static final int DMUL = 107;
+    static final int DNEG = 119;
+    static final int IXOR = 130;
+    static final int DCMPL = 151;
+    static final int DCMPG = 152;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int IF_ACMPNE = 166;
+    static final int GOTO = 167;
+    static final int ARETURN = 176;
+    static final int RETURN = 177;
+    static final int AALOAD = 50;
+    static final int AASTORE = 83;
+
+    private static final int BIPUSH = 16;
+    private static final int SIPUSH = 17;
+    private static final int LDC_W = 19;
+    private static final int LDC2_W = 20;
+    private static final int DLOAD = 24;
+    private static final int ALOAD = 25;
+    private static final int DSTORE = 57;
+    private static final int ASTORE = 58;
+    private static final int GETSTATIC = 178;
+    private static final int PUTSTATIC = 179;
+    private static final int GETFIELD = 180;
+    private static final int INVOKEVIRTUAL = 182;
+    private static final int INVOKESTATIC = 184;
+    private static final int ANEWARRAY = 189;
+    private static final int CHECKCAST = 192;
+    private static final int INSTANCEOF = 193;
+
+    static class Label {
+        private int position = -1;
+        private int stack = -1;
+        // Offsets of the jump instructions that target this label
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    private final ClassFile classFile;
+    private final int access;
+    private final String name;
+    private final String descriptor;
+
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+    private final List<Label> labels = new ArrayList<>();
+
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+    private boolean reachable = true;
+
+    Code(ClassFile classFile, int access, String name, String descriptor, int parameterSlots) {
+        this.classFile = classFile;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxLocals = parameterSlots;
+    }
+
+    int maxStack() {
+        return maxStack;
+    }
+
+    int maxLocals() {
+        return maxLocals;
+    }
+
+    boolean isReachable() {
+        return reachable;
+    }
+
+    int newLocal(int size) {
+        int local = maxLocals;
+        maxLocals += size;
+        return local;
+    }
+
+    void op(int opcode, int stackEffect) {
+        emit(opcode);
+        adjust(stackEffect);
+        if (opcode == ARETURN || opcode == RETURN)
+            reachable = false;
+    }
+
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH);
+            emit(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH);
+            emitShort(value);
+        } else {
+            emit(LDC_W);
+            emitShort(classFile.integer(value));
+        }
+
+        adjust(1);
+    }
+
+    void pushDouble(double value) {
+        emit(LDC2_W);
+        emitShort(classFile.doubleConstant(value));
+        adjust(2);
+    }
+
+    void pushString(String value) {
+        emit(LDC_W);
+        emitShort(classFile.string(value));
+        adjust(1);
+    }
+
+    void pushClass(String internalName) {
+        emit(LDC_W);
+        emitShort(classFile.classReference(internalName));
+        adjust(1);
+    }
+
+    void loadDouble(int local) {
+        local(DLOAD, local);
+        adjust(2);
+    }
+
+    void loadObject(int local) {
+        local(ALOAD, local);
+        adjust(1);
+    }
+
+    void storeDouble(int local) {
+        local(DSTORE, local);
+        adjust(-2);
+    }
+
+    void storeObject(int local) {
+        local(ASTORE, local);
+        adjust(-1);
+    }
+
+    void getStatic(String owner, String name, String descriptor) {
+        emit(GETSTATIC);
+        emitShort(classFile.field(owner, name, descriptor));
+        adjust(size(descriptor));
+    }
+
+    void putStatic(String owner, String name, String descriptor) {
+        emit(PUTSTATIC);
+        emitShort(classFile.field(owner, name, descriptor));
+        adjust(-size(descriptor));
+    }
+
+    void getField(String owner, String name, String descriptor) {
+        emit(GETFIELD);
+        emitShort(classFile.field(owner, name, descriptor));
+        adjust(size(descriptor) - 1);
+    }
+
+    void invokeStatic(String owner, String name, String descriptor) {
+        emit(INVOKESTATIC);
+        emitShort(classFile.method(owner, name, descriptor));
+        adjust(returnSize(descriptor) - argumentSize(descriptor));
+    }
+
+    void invokeVirtual(String owner, String name, String descriptor) {
+        emit(INVOKEVIRTUAL);
+        emitShort(classFile.method(owner, name, descriptor));
+        adjust(returnSize(descriptor) - argumentSize(descriptor) - 1);
+    }
+
+    void newObjectArray(String elementType) {
+        emit(ANEWARRAY);
+        emitShort(classFile.classReference(elementType));
+    }
+
+    void checkCast(String type) {
+        emit(CHECKCAST);
+        emitShort(classFile.classReference(type));
+    }
+
+    void instanceOf(String type) {
+        emit(INSTANCEOF);
+        emitShort(classFile.classReference(type));
+    }
+
+    void jump(int opcode, Label label) {
+        switch (opcode) {
+            case GOTO -> {
+            }
+            case IF_ACMPNE -> adjust(-2);
+            default -> adjust(-1);
+        }
+
+        label.jumps.add(length);
+        label.stack = stack;
+        if (!labels.contains(label))
+            labels.add(label);
+
+        emit(opcode);
+        emitShort(0);
+
+        if (opcode == GOTO)
+            reachable = false;
+    }
+
+    void place(Label label) {
+        label.position = length;
+        if (!labels.contains(label))
+            labels.add(label);
+
+        if (reachable || label.jumps.isEmpty())
+            return;
+
+        stack = label.stack;
+        reachable = true;
+    }
+
+    void finish() {
+        for (Label label : labels) {
+            for (int jump : label.jumps) {
+                int offset = label.position - jump;
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                    throw new JitCompiler.Unsupported("Method too large");
+
+                bytes[jump + 1] = (byte) (offset >> 8);
+                bytes[jump + 2] = (byte) offset;
+            }
+        }
+
+        if (length > 0xFFFF)
+            throw new JitCompiler.Unsupported("Method too large");
+
+        classFile.addMethod(access, name, descriptor, this, Arrays.copyOf(bytes, length));
+    }
+
+    private void local(int opcode, int local) {
+        if (local > 0xFF)
+            throw new JitCompiler.Unsupported("Too many locals");
+
+        emit(opcode);
+        emit(local);
+    }
+
+    private void adjust(int stackEffect) {
+        stack += stackEffect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void emit(int value) {
+        if (length == bytes.length)
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+        bytes[length++] = (byte) value;
+    }
+
+    private void emitShort(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    private static int size(String type) {
+        return switch (type.charAt(0)) {
+            case 'V' -> 0;
+            case 'D', 'J' -> 2;
+            default -> 1;
+        };
+    }
+
+    private static int returnSize(String descriptor) {
+        return size(descriptor.substring(descriptor.indexOf(')') + 1));
+    }
+
+    private static int argumentSize(String descriptor) {
+        int size = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            size += c == 'D' || c == 'J' ? 2 : 1;
+
+            while (descriptor.charAt(i) == '[') i++;
+            i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,9 @@
+package org.example.lox.jit;
+
+import java.lang.invoke.MethodHandle;
+
+// What the JitCompiler makes of a function. The entry takes the Interpreter, the LoxFunction and a
+// frame holding the arguments; the invoker takes the Interpreter, the LoxFunction and the arguments
+// themselves, as call sites in other compiled code pass them, and runs any tail call left pending
+public record CompiledCode(MethodHandle entry, MethodHandle invoker) {
+}
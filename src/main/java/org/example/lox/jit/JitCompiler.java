@@ -0,0 +1,1019 @@
+package org.example.lox.jit;
+
+import org.example.lox.FunctionPrototype;
+import org.example.lox.Token;
+import org.example.lox.TokenType;
+import org.example.lox.ast.Visitor;
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Compiles the body of a hot function to JVM bytecode, loaded as a hidden class so HotSpot can
+// optimize it like any other method. Locals and parameters that only ever hold numbers live in
+// double locals; the parameters are assumed to be numbers when every call profiled so far passed
+// one, and the entry guards that before running the body. A failed guard deoptimizes: the entry
+// returns DEOPTIMIZE and the Interpreter runs the call instead, from the same frame.
+//
+// Functions with closures, nested functions or classes, 'this' or 'super' are left to the
+// Interpreter. Everything else that is not arithmetic on known numbers goes through JitRuntime,
+// except calls to other functions, which go through a LoxCallSite each
+public class JitCompiler implements Visitor<JitCompiler.Kind> {
+    private static final String CLASS_NAME = "org/example/lox/jit/CompiledFunction";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String INTERPRETER = "org/example/lox/Interpreter";
+    private static final String FUNCTION = "org/example/lox/LoxFunction";
+    private static final String ENVIRONMENT = "org/example/lox/Environment";
+    private static final String GLOBALS = "org/example/lox/GlobalEnvironment";
+    private static final String TOKEN = "org/example/lox/Token";
+    private static final String CACHE = "org/example/lox/PropertyCache";
+    private static final String RUNTIME = "org/example/lox/jit/JitRuntime";
+    private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String LOOKUP = "java/lang/invoke/MethodHandles$Lookup";
+
+    private static final String ENTRY_DESCRIPTOR = "(L" + INTERPRETER + ";L" + FUNCTION + ";L" + ENVIRONMENT + ";)L" + OBJECT + ";";
+
+    // JVM locals 0 and 1 of the body hold the Interpreter and the LoxFunction being run
+    private static final int INTERPRETER_LOCAL = 0;
+    private static final int FUNCTION_LOCAL = 1;
+
+    // How a value sits on the operand stack or in a local
+    enum Kind {
+        NUMBER,
+        BOOLEAN,
+        OBJECT
+    }
+
+    static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private record Loop(Code.Label continueLabel, Code.Label breakLabel) {
+    }
+
+    private final FunctionPrototype function;
+    private final boolean tailCalls;
+    private final ClassFile classFile = new ClassFile(CLASS_NAME);
+    private final List<Object> constants = new ArrayList<>();
+    // Index in constants of each call site's invoker, which the class initializer moves into a field
+    private final List<Integer> callSites = new ArrayList<>();
+    private final Deque<Loop> loops = new ArrayDeque<>();
+
+    // Per slot of the function's frame
+    private final Kind[] kinds;
+    private final int[] locals;
+
+    private Code code;
+    private Code.Label start;
+    private String bodyDescriptor;
+
+    private JitCompiler(FunctionPrototype function, long numberArguments, boolean tailCalls) {
+        this.function = function;
+        this.tailCalls = tailCalls;
+        this.kinds = new Kind[function.slotCount];
+        this.locals = new int[function.slotCount];
+
+        for (int slot = 0; slot < kinds.length; slot++) {
+            boolean isParameter = slot < function.arity();
+            boolean isNumber = !isParameter || slot < Long.SIZE && (numberArguments & (1L << slot)) != 0;
+            kinds[slot] = isNumber ? Kind.NUMBER : Kind.OBJECT;
+        }
+    }
+
+    // Returns null when the function cannot be compiled
+    public static CompiledCode compile(FunctionPrototype function, long numberArguments, boolean tailCalls) {
+        if (!function.captures.isEmpty() || !function.sharedParameters.isEmpty())
+            return null;
+
+        try {
+            return new JitCompiler(function, numberArguments, tailCalls).compile();
+        } catch (Unsupported unsupported) {
+            return null;
+        }
+    }
+
+    private CompiledCode compile() {
+        inferKinds();
+        classFile.addField(ClassFile.ACC_STATIC | ClassFile.ACC_FINAL, "constants", "[L" + OBJECT + ";");
+        compileBody();
+        compileEntry();
+        compileInvoker();
+        compileInitializer();
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(classFile.toByteArray(), constants.toArray(), true);
+
+            ClassLoader loader = JitCompiler.class.getClassLoader();
+            MethodType entry = MethodType.fromMethodDescriptorString(ENTRY_DESCRIPTOR, loader);
+            MethodType invoker = MethodType.fromMethodDescriptorString(invokerDescriptor(), loader);
+            return new CompiledCode(
+                    lookup.findStatic(lookup.lookupClass(), "entry", entry),
+                    lookup.findStatic(lookup.lookupClass(), "invoker", invoker));
+        } catch (ReflectiveOperationException | LinkageError error) {
+            throw new IllegalStateException("Failed to load compiled code for " + function.name, error);
+        }
+    }
+
+    // Slots start out as numbers and become OBJECT when something stores anything else in them,
+    // until nothing changes; what an expression produces depends on the kinds of the slots it reads
+    private void inferKinds() {
+        List<Definition> definitions = new ArrayList<>();
+        for (Statement statement : function.body)
+            collect(statement, definitions);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Definition definition : definitions) {
+                if (kinds[definition.slot] != Kind.NUMBER) continue;
+                if (definition.value != null && kindOf(definition.value) == Kind.NUMBER) continue;
+
+                kinds[definition.slot] = Kind.OBJECT;
+                changed = true;
+            }
+        }
+    }
+
+    private record Definition(int slot, Expression value) {
+    }
+
+    private void collect(Statement statement, List<Definition> definitions) {
+        if (statement instanceof ExpressionStatement expressionStatement) {
+            collect(expressionStatement.expression, definitions);
+        } else if (statement instanceof PrintStatement printStatement) {
+            collect(printStatement.expression, definitions);
+        } else if (statement instanceof VariableStatement variableStatement) {
+            if (variableStatement.slot == -1 || variableStatement.shared)
+                throw new Unsupported("Variable outside the frame");
+
+            if (variableStatement.expression != null)
+                collect(variableStatement.expression, definitions);
+
+            definitions.add(new Definition(variableStatement.slot, variableStatement.expression));
+        } else if (statement instanceof BlockStatement blockStatement) {
+            if (blockStatement.allocatesEnvironment)
+                throw new Unsupported("Block with an environment");
+
+            for (Statement inner : blockStatement.statements)
+                collect(inner, definitions);
+        } else if (statement instanceof IfStatement ifStatement) {
+            collect(ifStatement.condition, definitions);
+            collect(ifStatement.thenBranch, definitions);
+            if (ifStatement.elseBranch != null)
+                collect(ifStatement.elseBranch, definitions);
+        } else if (statement instanceof WhileStatement whileStatement) {
+            collect(whileStatement.condition, definitions);
+            collect(whileStatement.body, definitions);
+            if (whileStatement.increment != null)
+                collect(whileStatement.increment, definitions);
+        } else if (statement instanceof ReturnStatement returnStatement) {
+            if (returnStatement.value != null)
+                collect(returnStatement.value, definitions);
+        } else if (!(statement instanceof BreakStatement) && !(statement instanceof ContinueStatement)) {
+            throw new Unsupported("Declaration in the body");
+        }
+    }
+
+    private void collect(Expression expression, List<Definition> definitions) {
+        if (expression instanceof AssignmentExpression assignment) {
+            collect(assignment.expression, definitions);
+            if (assignment.depth == 0)
+                definitions.add(new Definition(assignment.slot, assignment.expression));
+        } else if (expression instanceof UnaryExpression unary) {
+            collect(unary.right, definitions);
+        } else if (expression instanceof BinaryExpression binary) {
+            collect(binary.left, definitions);
+            collect(binary.right, definitions);
+        } else if (expression instanceof LogicalExpression logical) {
+            collect(logical.left, definitions);
+            collect(logical.right, definitions);
+        } else if (expression instanceof GroupingExpression grouping) {
+            collect(grouping.expression, definitions);
+        } else if (expression instanceof InvariantExpression invariant) {
+            collect(invariant.expression, definitions);
+        } else if (expression instanceof InlinedCallExpression inlined) {
+            collect(inlined.call, definitions);
+        } else if (expression instanceof CallExpression call) {
+            collect(call.callee, definitions);
+            for (Expression argument : call.arguments)
+                collect(argument, definitions);
+        } else if (expression instanceof GetExpression get) {
+            collect(get.object, definitions);
+        } else if (expression instanceof SetExpression set) {
+            collect(set.object, definitions);
+            collect(set.value, definitions);
+        } else if (!(expression instanceof LiteralExpression) && !(expression instanceof VariableExpression)) {
+            throw new Unsupported("Closure in the body");
+        }
+    }
+
+    private Kind kindOf(Expression expression) {
+        if (expression instanceof LiteralExpression literal) {
+            if (literal.value instanceof Double) return Kind.NUMBER;
+            if (literal.value instanceof Boolean) return Kind.BOOLEAN;
+            return Kind.OBJECT;
+        }
+
+        if (expression instanceof GroupingExpression grouping)
+            return kindOf(grouping.expression);
+
+        if (expression instanceof InvariantExpression invariant)
+            return kindOf(invariant.expression);
+
+        if (expression instanceof VariableExpression variable)
+            return variable.depth == 0 ? kinds[variable.slot] : Kind.OBJECT;
+
+        if (expression instanceof AssignmentExpression assignment)
+            return assignment.depth == 0 ? kinds[assignment.slot] : Kind.OBJECT;
+
+        if (expression instanceof UnaryExpression unary)
+            return unary.operator.type == TokenType.MINUS ? Kind.NUMBER : Kind.BOOLEAN;
+
+        if (expression instanceof BinaryExpression binary) {
+            return switch (binary.operator.type) {
+                case PLUS -> isNumber(binary.left) && isNumber(binary.right) ? Kind.NUMBER : Kind.OBJECT;
+                case MINUS, ASTERISK, SLASH -> Kind.NUMBER;
+                default -> Kind.BOOLEAN;
+            };
+        }
+
+        if (expression instanceof LogicalExpression logical) {
+            Kind left = kindOf(logical.left);
+            return left != Kind.OBJECT && left == kindOf(logical.right) ? left : Kind.OBJECT;
+        }
+
+        return Kind.OBJECT;
+    }
+
+    private boolean isNumber(Expression expression) {
+        return kindOf(expression) == Kind.NUMBER;
+    }
+
+    private void compileBody() {
+        List<Token> parameters = function.parameters;
+        StringBuilder descriptor = new StringBuilder("(L" + INTERPRETER + ";L" + FUNCTION + ";");
+        int local = 2;
+        for (int slot = 0; slot < parameters.size(); slot++) {
+            descriptor.append(kinds[slot] == Kind.NUMBER ? "D" : "L" + OBJECT + ";");
+            locals[slot] = local;
+            local += size(kinds[slot]);
+        }
+
+        bodyDescriptor = descriptor.append(")L").append(OBJECT).append(";").toString();
+        code = classFile.addMethod(ClassFile.ACC_STATIC, "body", bodyDescriptor, local);
+
+        // Every other slot starts out initialized, so the verifier sees a type for it on every path
+        for (int slot = parameters.size(); slot < kinds.length; slot++) {
+            locals[slot] = code.newLocal(size(kinds[slot]));
+            if (kinds[slot] == Kind.NUMBER) {
+                code.op(Code.DCONST_0, 2);
+                code.storeDouble(locals[slot]);
+            } else {
+                code.op(Code.ACONST_NULL, 1);
+                code.storeObject(locals[slot]);
+            }
+        }
+
+        // Self tail calls jump back here with the new arguments in the parameter locals
+        start = new Code.Label();
+        code.place(start);
+
+        compileStatements(function.body);
+        if (code.isReachable()) {
+            code.op(Code.ACONST_NULL, 1);
+            code.op(Code.ARETURN, -1);
+        }
+
+        code.finish();
+    }
+
+    private void compileEntry() {
+        code = classFile.addMethod(ClassFile.ACC_STATIC, "entry", ENTRY_DESCRIPTOR, 3);
+        Code.Label deoptimize = new Code.Label();
+        int frame = 2;
+
+        for (int slot = 0; slot < function.parameters.size(); slot++) {
+            if (kinds[slot] != Kind.NUMBER) continue;
+
+            code.loadObject(frame);
+            code.pushInt(slot);
+            code.invokeVirtual(ENVIRONMENT, "get", "(I)L" + OBJECT + ";");
+            code.instanceOf(DOUBLE);
+            code.jump(Code.IFEQ, deoptimize);
+        }
+
+        code.loadObject(INTERPRETER_LOCAL);
+        code.loadObject(FUNCTION_LOCAL);
+        for (int slot = 0; slot < function.parameters.size(); slot++) {
+            code.loadObject(frame);
+            code.pushInt(slot);
+            code.invokeVirtual(ENVIRONMENT, "get", "(I)L" + OBJECT + ";");
+            if (kinds[slot] == Kind.NUMBER) {
+                code.checkCast(DOUBLE);
+                code.invokeVirtual(DOUBLE, "doubleValue", "()D");
+            }
+        }
+
+        code.invokeStatic(CLASS_NAME, "body", bodyDescriptor);
+        code.op(Code.ARETURN, -1);
+
+        code.place(deoptimize);
+        code.getStatic(RUNTIME, "DEOPTIMIZE", "L" + OBJECT + ";");
+        code.op(Code.ARETURN, -1);
+        code.finish();
+    }
+
+    private String invokerDescriptor() {
+        return "(L" + INTERPRETER + ";L" + FUNCTION + ";" + ("L" + OBJECT + ";").repeat(function.parameters.size()) + ")L" + OBJECT + ";";
+    }
+
+    // Checks the arguments like the entry does, but a failed guard makes an ordinary call of the
+    // function, which the Interpreter then runs
+    private void compileInvoker() {
+        int count = function.parameters.size();
+        code = classFile.addMethod(ClassFile.ACC_STATIC, "invoker", invokerDescriptor(), 2 + count);
+        Code.Label interpret = new Code.Label();
+
+        for (int slot = 0; slot < count; slot++) {
+            if (kinds[slot] != Kind.NUMBER) continue;
+
+            code.loadObject(2 + slot);
+            code.instanceOf(DOUBLE);
+            code.jump(Code.IFEQ, interpret);
+        }
+
+        code.loadObject(INTERPRETER_LOCAL);
+        code.loadObject(FUNCTION_LOCAL);
+        for (int slot = 0; slot < count; slot++) {
+            code.loadObject(2 + slot);
+            if (kinds[slot] == Kind.NUMBER) {
+                code.checkCast(DOUBLE);
+                code.invokeVirtual(DOUBLE, "doubleValue", "()D");
+            }
+        }
+
+        code.invokeStatic(CLASS_NAME, "body", bodyDescriptor);
+        code.loadObject(INTERPRETER_LOCAL);
+        code.invokeStatic(RUNTIME, "complete", "(L" + OBJECT + ";L" + INTERPRETER + ";)L" + OBJECT + ";");
+        code.op(Code.ARETURN, -1);
+
+        code.place(interpret);
+        code.loadObject(FUNCTION_LOCAL);
+        code.loadObject(INTERPRETER_LOCAL);
+        code.pushInt(count);
+        code.newObjectArray(OBJECT);
+        for (int slot = 0; slot < count; slot++) {
+            code.op(Code.DUP, 1);
+            code.pushInt(slot);
+            code.loadObject(2 + slot);
+            code.op(Code.AASTORE, -3);
+        }
+
+        code.invokeVirtual(FUNCTION, "call", "(L" + INTERPRETER + ";[L" + OBJECT + ";)L" + OBJECT + ";");
+        code.op(Code.ARETURN, -1);
+        code.finish();
+    }
+
+    // Takes the constants from the class data, and the call sites' invokers from them into static
+    // final fields, which HotSpot treats as constants
+    private void compileInitializer() {
+        code = classFile.addMethod(ClassFile.ACC_STATIC, "<clinit>", "()V", 0);
+        code.invokeStatic("java/lang/invoke/MethodHandles", "lookup", "()L" + LOOKUP + ";");
+        code.pushString("_");
+        code.pushClass("[L" + OBJECT + ";");
+        code.invokeStatic("java/lang/invoke/MethodHandles", "classData",
+                "(L" + LOOKUP + ";Ljava/lang/String;Ljava/lang/Class;)L" + OBJECT + ";");
+        code.checkCast("[L" + OBJECT + ";");
+        code.putStatic(CLASS_NAME, "constants", "[L" + OBJECT + ";");
+
+        for (int site = 0; site < callSites.size(); site++) {
+            code.getStatic(CLASS_NAME, "constants", "[L" + OBJECT + ";");
+            code.pushInt(callSites.get(site));
+            code.op(Code.AALOAD, -1);
+            code.checkCast(METHOD_HANDLE);
+            code.putStatic(CLASS_NAME, "site" + site, "L" + METHOD_HANDLE + ";");
+        }
+
+        code.op(Code.RETURN, 0);
+        code.finish();
+    }
+
+    // Pushes the invoker of a new call site
+    private void callSite(CallExpression callExpression) {
+        int site = callSites.size();
+        callSites.add(constants.size());
+        constants.add(new LoxCallSite(callExpression.arguments.size(), callExpression.rightParenthesis).dynamicInvoker());
+
+        classFile.addField(ClassFile.ACC_STATIC | ClassFile.ACC_FINAL, "site" + site, "L" + METHOD_HANDLE + ";");
+        code.getStatic(CLASS_NAME, "site" + site, "L" + METHOD_HANDLE + ";");
+    }
+
+    private void compileStatements(List<Statement> statements) {
+        for (Statement statement : statements) {
+            // Nothing after a return, break or continue can run
+            if (!code.isReachable()) return;
+            statement.accept(this);
+        }
+    }
+
+    private void compile(Expression expression, Kind kind) {
+        convert(expression.accept(this), kind);
+    }
+
+    private void convert(Kind from, Kind to) {
+        if (from == to) return;
+
+        if (to != Kind.OBJECT)
+            throw new Unsupported("Unexpected " + from + " where " + to + " was inferred");
+
+        if (from == Kind.NUMBER)
+            code.invokeStatic(DOUBLE, "valueOf", "(D)L" + DOUBLE + ";");
+        else
+            code.invokeStatic(BOOLEAN, "valueOf", "(Z)L" + BOOLEAN + ";");
+    }
+
+    private void pop(Kind kind) {
+        code.op(kind == Kind.NUMBER ? Code.POP2 : Code.POP, -size(kind));
+    }
+
+    private static int size(Kind kind) {
+        return kind == Kind.NUMBER ? 2 : 1;
+    }
+
+    private void constant(Object value, String type) {
+        int index = constants.size();
+        constants.add(value);
+
+        code.getStatic(CLASS_NAME, "constants", "[L" + OBJECT + ";");
+        code.pushInt(index);
+        code.op(Code.AALOAD, -1);
+        code.checkCast(type);
+    }
+
+    private void token(Token token) {
+        constant(token, TOKEN);
+    }
+
+    private void globals() {
+        code.loadObject(INTERPRETER_LOCAL);
+        code.getField(INTERPRETER, "globals", "L" + GLOBALS + ";");
+    }
+
+    // Jumps to the label when the condition is falsey, without materializing comparisons
+    private void branchIfFalse(Expression condition, Code.Label label) {
+        if (condition instanceof BinaryExpression binary && isNumber(binary.left) && isNumber(binary.right)) {
+            int jump = switch (binary.operator.type) {
+                case LESS -> Code.IFGE;
+                case LESS_EQUAL -> Code.IFGT;
+                case GREATER -> Code.IFLE;
+                case GREATER_EQUAL -> Code.IFLT;
+                default -> -1;
+            };
+
+            if (jump != -1) {
+                compile(binary.left, Kind.NUMBER);
+                compile(binary.right, Kind.NUMBER);
+                // NaN compares false either way: dcmpg makes it 1 for < and <=, dcmpl -1 for > and >=
+                boolean isLess = jump == Code.IFGE || jump == Code.IFGT;
+                code.op(isLess ? Code.DCMPG : Code.DCMPL, -3);
+                code.jump(jump, label);
+                return;
+            }
+        }
+
+        Kind kind = condition.accept(this);
+        switch (kind) {
+            case NUMBER -> pop(kind);
+            case BOOLEAN -> code.jump(Code.IFEQ, label);
+            case OBJECT -> {
+                code.invokeStatic(INTERPRETER, "isTrue", "(L" + OBJECT + ";)Z");
+                code.jump(Code.IFEQ, label);
+            }
+        }
+    }
+
+    private Kind booleanOf(Expression condition) {
+        Code.Label isFalse = new Code.Label();
+        Code.Label end = new Code.Label();
+
+        branchIfFalse(condition, isFalse);
+        code.op(Code.ICONST_1, 1);
+        code.jump(Code.GOTO, end);
+        code.place(isFalse);
+        code.op(Code.ICONST_0, 1);
+        code.place(end);
+        return Kind.BOOLEAN;
+    }
+
+    private void not() {
+        code.op(Code.ICONST_1, 1);
+        code.op(Code.IXOR, -1);
+    }
+
+    @Override
+    public Kind visitUnaryExpression(UnaryExpression unaryExpression) {
+        Expression right = unaryExpression.right;
+
+        if (unaryExpression.operator.type == TokenType.MINUS) {
+            if (isNumber(right)) {
+                compile(right, Kind.NUMBER);
+                code.op(Code.DNEG, 0);
+            } else {
+                compile(right, Kind.OBJECT);
+                token(unaryExpression.operator);
+                code.invokeStatic(RUNTIME, "negate", "(L" + OBJECT + ";L" + TOKEN + ";)D");
+            }
+
+            return Kind.NUMBER;
+        }
+
+        if (unaryExpression.operator.type != TokenType.EXCLAMATION_MARK)
+            throw new Unsupported("Unary " + unaryExpression.operator.type);
+
+        Kind kind = right.accept(this);
+        switch (kind) {
+            case NUMBER -> {
+                pop(kind);
+                code.op(Code.ICONST_0, 1);
+            }
+            case BOOLEAN -> not();
+            case OBJECT -> {
+                code.invokeStatic(INTERPRETER, "isTrue", "(L" + OBJECT + ";)Z");
+                not();
+            }
+        }
+
+        return Kind.BOOLEAN;
+    }
+
+    @Override
+    public Kind visitBinaryExpression(BinaryExpression binaryExpression) {
+        Expression left = binaryExpression.left;
+        Expression right = binaryExpression.right;
+        Token operator = binaryExpression.operator;
+        boolean numbers = isNumber(left) && isNumber(right);
+
+        switch (operator.type) {
+            case PLUS, MINUS, ASTERISK -> {
+                if (numbers) {
+                    compile(left, Kind.NUMBER);
+                    compile(right, Kind.NUMBER);
+                    int opcode = operator.type == TokenType.PLUS ? Code.DADD
+                            : operator.type == TokenType.MINUS ? Code.DSUB
+                            : Code.DMUL;
+                    code.op(opcode, -2);
+                    return Kind.NUMBER;
+                }
+
+                token(operator);
+                compile(left, Kind.OBJECT);
+                compile(right, Kind.OBJECT);
+                if (operator.type == TokenType.PLUS) {
+                    code.invokeStatic(INTERPRETER, "binary", "(L" + TOKEN + ";L" + OBJECT + ";L" + OBJECT + ";)L" + OBJECT + ";");
+                    return Kind.OBJECT;
+                }
+
+                code.invokeStatic(RUNTIME, "arithmetic", "(L" + TOKEN + ";L" + OBJECT + ";L" + OBJECT + ";)D");
+                return Kind.NUMBER;
+            }
+
+            case SLASH -> {
+                if (numbers) {
+                    compile(left, Kind.NUMBER);
+                    compile(right, Kind.NUMBER);
+                    token(operator);
+                    code.invokeStatic(RUNTIME, "divide", "(DDL" + TOKEN + ";)D");
+                    return Kind.NUMBER;
+                }
+
+                token(operator);
+                compile(left, Kind.OBJECT);
+                compile(right, Kind.OBJECT);
+                code.invokeStatic(RUNTIME, "arithmetic", "(L" + TOKEN + ";L" + OBJECT + ";L" + OBJECT + ";)D");
+                return Kind.NUMBER;
+            }
+
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                if (numbers)
+                    return booleanOf(binaryExpression);
+
+                token(operator);
+                compile(left, Kind.OBJECT);
+                compile(right, Kind.OBJECT);
+                code.invokeStatic(RUNTIME, "compare", "(L" + TOKEN + ";L" + OBJECT + ";L" + OBJECT + ";)Z");
+                return Kind.BOOLEAN;
+            }
+
+            case EQUAL_EQUAL, EXCLAMATION_MARK_EQUAL -> {
+                if (numbers) {
+                    compile(left, Kind.NUMBER);
+                    compile(right, Kind.NUMBER);
+                    code.invokeStatic(RUNTIME, "equal", "(DD)Z");
+                } else {
+                    compile(left, Kind.OBJECT);
+                    compile(right, Kind.OBJECT);
+                    code.invokeStatic(INTERPRETER, "isEqual", "(L" + OBJECT + ";L" + OBJECT + ";)Z");
+                }
+
+                if (operator.type == TokenType.EXCLAMATION_MARK_EQUAL)
+                    not();
+
+                return Kind.BOOLEAN;
+            }
+
+            default -> throw new Unsupported("Binary " + operator.type);
+        }
+    }
+
+    @Override
+    public Kind visitGroupingExpression(GroupingExpression groupingExpression) {
+        return groupingExpression.expression.accept(this);
+    }
+
+    @Override
+    public Kind visitLiteralExpression(LiteralExpression literalExpression) {
+        Object value = literalExpression.value;
+        if (value instanceof Double number) {
+            code.pushDouble(number);
+            return Kind.NUMBER;
+        }
+
+        if (value instanceof Boolean bool) {
+            code.op(bool ? Code.ICONST_1 : Code.ICONST_0, 1);
+            return Kind.BOOLEAN;
+        }
+
+        if (value == null) {
+            code.op(Code.ACONST_NULL, 1);
+            return Kind.OBJECT;
+        }
+
+        code.pushString(value.toString());
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitVariableExpression(VariableExpression variableExpression) {
+        if (variableExpression.depth == -1) {
+            globals();
+            code.pushInt(variableExpression.slot);
+            token(variableExpression.token);
+            code.invokeVirtual(GLOBALS, "get", "(IL" + TOKEN + ";)L" + OBJECT + ";");
+            return Kind.OBJECT;
+        }
+
+        if (variableExpression.depth != 0 || variableExpression.shared)
+            throw new Unsupported("Captured variable");
+
+        Kind kind = kinds[variableExpression.slot];
+        if (kind == Kind.NUMBER)
+            code.loadDouble(locals[variableExpression.slot]);
+        else
+            code.loadObject(locals[variableExpression.slot]);
+
+        return kind;
+    }
+
+    @Override
+    public Kind visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+        if (assignmentExpression.depth == -1) {
+            compile(assignmentExpression.expression, Kind.OBJECT);
+            globals();
+            code.pushInt(assignmentExpression.slot);
+            token(assignmentExpression.token);
+            code.invokeStatic(RUNTIME, "assignGlobal", "(L" + OBJECT + ";L" + GLOBALS + ";IL" + TOKEN + ";)L" + OBJECT + ";");
+            return Kind.OBJECT;
+        }
+
+        if (assignmentExpression.depth != 0 || assignmentExpression.shared)
+            throw new Unsupported("Captured variable");
+
+        Kind kind = kinds[assignmentExpression.slot];
+        compile(assignmentExpression.expression, kind);
+        if (kind == Kind.NUMBER) {
+            code.op(Code.DUP2, 2);
+            code.storeDouble(locals[assignmentExpression.slot]);
+        } else {
+            code.op(Code.DUP, 1);
+            code.storeObject(locals[assignmentExpression.slot]);
+        }
+
+        return kind;
+    }
+
+    // Only the value a logical expression picks is ever converted, as both sides have the same kind
+    @Override
+    public Kind visitLogicalExpression(LogicalExpression logicalExpression) {
+        Kind kind = kindOf(logicalExpression);
+        boolean isOr = logicalExpression.operator.type == TokenType.OR;
+
+        // Numbers are always truthy
+        if (kind == Kind.NUMBER) {
+            compile(logicalExpression.left, kind);
+            if (isOr) return kind;
+
+            pop(kind);
+            compile(logicalExpression.right, kind);
+            return kind;
+        }
+
+        Code.Label end = new Code.Label();
+        compile(logicalExpression.left, kind);
+        code.op(Code.DUP, 1);
+        if (kind == Kind.OBJECT)
+            code.invokeStatic(INTERPRETER, "isTrue", "(L" + OBJECT + ";)Z");
+
+        code.jump(isOr ? Code.IFNE : Code.IFEQ, end);
+        code.op(Code.POP, -1);
+        compile(logicalExpression.right, kind);
+        code.place(end);
+        return kind;
+    }
+
+    @Override
+    public Kind visitCallExpression(CallExpression callExpression) {
+        compileCall(callExpression, false);
+        return Kind.OBJECT;
+    }
+
+    // Evaluates the callee and arguments in the Interpreter's order. A call that reaches this very
+    // function invokes the body directly, or in tail position jumps back to its start. Other calls
+    // go through a call site, except tail calls, which are left pending with the Interpreter, and
+    // method calls, whose bound method is new every time
+    private void compileCall(CallExpression callExpression, boolean isTail) {
+        Expression callee = callExpression.callee;
+        List<Expression> arguments = callExpression.arguments;
+        Code.Label end = new Code.Label();
+        // The invoker's arguments are the callee, the Interpreter and the call's arguments
+        boolean linked = !isTail && !(callee instanceof GetExpression) && arguments.size() <= 250;
+
+        if (linked)
+            callSite(callExpression);
+
+        if (callee instanceof GetExpression getExpression) {
+            compile(getExpression.object, Kind.OBJECT);
+            constant(getExpression.cache, CACHE);
+            token(getExpression.name);
+            code.invokeStatic(RUNTIME, "callee", "(L" + OBJECT + ";L" + CACHE + ";L" + TOKEN + ";)L" + OBJECT + ";");
+        } else {
+            compile(callee, Kind.OBJECT);
+            if (callsItself(callExpression)) {
+                Code.Label other = new Code.Label();
+                code.op(Code.DUP, 1);
+                code.loadObject(FUNCTION_LOCAL);
+                code.jump(Code.IF_ACMPNE, other);
+                code.op(Code.POP, -1);
+                if (linked)
+                    code.op(Code.POP, -1);
+
+                if (isTail) {
+                    for (int i = 0; i < arguments.size(); i++)
+                        compile(arguments.get(i), kinds[i]);
+
+                    for (int i = arguments.size() - 1; i >= 0; i--) {
+                        if (kinds[i] == Kind.NUMBER)
+                            code.storeDouble(locals[i]);
+                        else
+                            code.storeObject(locals[i]);
+                    }
+
+                    code.jump(Code.GOTO, start);
+                } else {
+                    code.loadObject(INTERPRETER_LOCAL);
+                    code.loadObject(FUNCTION_LOCAL);
+                    for (int i = 0; i < arguments.size(); i++)
+                        compile(arguments.get(i), kinds[i]);
+
+                    code.invokeStatic(CLASS_NAME, "body", bodyDescriptor);
+                    code.loadObject(INTERPRETER_LOCAL);
+                    code.invokeStatic(RUNTIME, "complete", "(L" + OBJECT + ";L" + INTERPRETER + ";)L" + OBJECT + ";");
+                    code.jump(Code.GOTO, end);
+                }
+
+                code.place(other);
+            }
+        }
+
+        if (linked) {
+            code.loadObject(INTERPRETER_LOCAL);
+            for (Expression argument : arguments)
+                compile(argument, Kind.OBJECT);
+
+            String descriptor = LoxCallSite.type(arguments.size()).toMethodDescriptorString();
+            code.invokeVirtual(METHOD_HANDLE, "invokeExact", descriptor);
+            code.place(end);
+            return;
+        }
+
+        code.pushInt(arguments.size());
+        code.newObjectArray(OBJECT);
+        for (int i = 0; i < arguments.size(); i++) {
+            code.op(Code.DUP, 1);
+            code.pushInt(i);
+            compile(arguments.get(i), Kind.OBJECT);
+            code.op(Code.AASTORE, -3);
+        }
+
+        code.loadObject(INTERPRETER_LOCAL);
+        token(callExpression.rightParenthesis);
+        String descriptor = "(L" + OBJECT + ";[L" + OBJECT + ";L" + INTERPRETER + ";L" + TOKEN + ";)L" + OBJECT + ";";
+        code.invokeStatic(RUNTIME, isTail ? "tailCall" : "call", descriptor);
+        code.place(end);
+    }
+
+    // The direct path passes arguments in the parameters' kinds, which needs numbers where the
+    // body assumes them
+    private boolean callsItself(CallExpression callExpression) {
+        List<Expression> arguments = callExpression.arguments;
+        if (arguments.size() != function.parameters.size()) return false;
+
+        for (int i = 0; i < arguments.size(); i++) {
+            if (kinds[i] == Kind.NUMBER && !isNumber(arguments.get(i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public Kind visitGetExpression(GetExpression getExpression) {
+        compile(getExpression.object, Kind.OBJECT);
+        constant(getExpression.cache, CACHE);
+        token(getExpression.name);
+        code.invokeStatic(RUNTIME, "get", "(L" + OBJECT + ";L" + CACHE + ";L" + TOKEN + ";)L" + OBJECT + ";");
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitSetExpression(SetExpression setExpression) {
+        compile(setExpression.object, Kind.OBJECT);
+        token(setExpression.name);
+        code.invokeStatic(RUNTIME, "instance", "(L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";");
+        compile(setExpression.value, Kind.OBJECT);
+        constant(setExpression.cache, CACHE);
+        code.invokeStatic(RUNTIME, "set", "(L" + OBJECT + ";L" + OBJECT + ";L" + CACHE + ";)L" + OBJECT + ";");
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitThisExpression(ThisExpression thisExpression) {
+        throw new Unsupported("this");
+    }
+
+    @Override
+    public Kind visitSuperExpression(SuperExpression superExpression) {
+        throw new Unsupported("super");
+    }
+
+    @Override
+    public Kind visitLambdaExpression(LambdaExpression lambdaExpression) {
+        throw new Unsupported("Lambda");
+    }
+
+    // The hoisted expression is pure, so computing it every time gives the memoized value
+    @Override
+    public Kind visitInvariantExpression(InvariantExpression invariantExpression) {
+        return invariantExpression.expression.accept(this);
+    }
+
+    // The call as written; the Interpreter's guarded inline copy computes the same thing
+    @Override
+    public Kind visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        return inlinedCallExpression.call.accept(this);
+    }
+
+    @Override
+    public Kind visitExpressionStatement(ExpressionStatement expressionStatement) {
+        pop(expressionStatement.expression.accept(this));
+        return null;
+    }
+
+    @Override
+    public Kind visitPrintStatement(PrintStatement printStatement) {
+        compile(printStatement.expression, Kind.OBJECT);
+        code.invokeStatic(RUNTIME, "print", "(L" + OBJECT + ";)V");
+        return null;
+    }
+
+    @Override
+    public Kind visitVariableStatement(VariableStatement variableStatement) {
+        Kind kind = kinds[variableStatement.slot];
+        if (variableStatement.expression != null)
+            compile(variableStatement.expression, kind);
+        else
+            code.op(Code.ACONST_NULL, 1);
+
+        if (kind == Kind.NUMBER)
+            code.storeDouble(locals[variableStatement.slot]);
+        else
+            code.storeObject(locals[variableStatement.slot]);
+
+        return null;
+    }
+
+    @Override
+    public Kind visitBlockStatement(BlockStatement blockStatement) {
+        compileStatements(blockStatement.statements);
+        return null;
+    }
+
+    @Override
+    public Kind visitIfStatement(IfStatement ifStatement) {
+        Code.Label elseLabel = new Code.Label();
+        Code.Label end = new Code.Label();
+
+        branchIfFalse(ifStatement.condition, elseLabel);
+        ifStatement.thenBranch.accept(this);
+        if (ifStatement.elseBranch != null && code.isReachable())
+            code.jump(Code.GOTO, end);
+
+        // A condition that is always truthy never jumps to the else branch
+        code.place(elseLabel);
+        if (ifStatement.elseBranch != null && code.isReachable())
+            ifStatement.elseBranch.accept(this);
+
+        code.place(end);
+        return null;
+    }
+
+    // A counted loop compiles like any other: its body never assigns the index, and its hoisted
+    // limit is pure, so evaluating it each time gives the same result
+    @Override
+    public Kind visitWhileStatement(WhileStatement whileStatement) {
+        Code.Label condition = new Code.Label();
+        Code.Label increment = new Code.Label();
+        Code.Label end = new Code.Label();
+
+        code.place(condition);
+        branchIfFalse(whileStatement.condition, end);
+
+        loops.push(new Loop(increment, end));
+        try {
+            whileStatement.body.accept(this);
+        } finally {
+            loops.pop();
+        }
+
+        code.place(increment);
+        if (code.isReachable()) {
+            if (whileStatement.increment != null)
+                pop(whileStatement.increment.accept(this));
+
+            code.jump(Code.GOTO, condition);
+        }
+
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Kind visitBreakStatement(BreakStatement breakStatement) {
+        code.jump(Code.GOTO, loops.peek().breakLabel());
+        return null;
+    }
+
+    @Override
+    public Kind visitContinueStatement(ContinueStatement continueStatement) {
+        code.jump(Code.GOTO, loops.peek().continueLabel());
+        return null;
+    }
+
+    @Override
+    public Kind visitFunctionStatement(FunctionStatement functionStatement) {
+        throw new Unsupported("Nested function");
+    }
+
+    @Override
+    public Kind visitReturnStatement(ReturnStatement returnStatement) {
+        if (returnStatement.value == null) {
+            code.op(Code.ACONST_NULL, 1);
+        } else if (tailCalls && returnStatement.value instanceof CallExpression callExpression) {
+            compileCall(callExpression, true);
+            if (!code.isReachable()) return null;
+        } else if (tailCalls && returnStatement.value instanceof InlinedCallExpression inlined && inlined.body == null) {
+            // A tail call, as the Interpreter runs it
+            compileCall(inlined.call, true);
+            if (!code.isReachable()) return null;
+        } else {
+            compile(returnStatement.value, Kind.OBJECT);
+        }
+
+        code.op(Code.ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Kind visitClassStatement(ClassStatement classStatement) {
+        throw new Unsupported("Nested class");
+    }
+}
@@ -0,0 +1,110 @@
+package org.example.lox.jit;
+
+import org.example.lox.BoundMethod;
+import org.example.lox.GlobalEnvironment;
+import org.example.lox.Interpreter;
+import org.example.lox.LoxCallable;
+import org.example.lox.LoxFunction;
+import org.example.lox.LoxInstance;
+import org.example.lox.PropertyCache;
+import org.example.lox.Token;
+import org.example.lox.exception.RuntimeError;
+
+// What compiled code calls for everything that is not plain arithmetic on doubles. Each helper
+// does what the Interpreter does for the same node, in the same order, with the same errors
+public final class JitRuntime {
+    // Returned by a compiled entry whose argument guards failed; the Interpreter runs the call instead
+    public static final Object DEOPTIMIZE = new Object();
+    // Returned for 'return f(...)' once the call is left pending with the Interpreter, as it does itself
+    public static final Object TAIL_CALL = new Object();
+
+    private JitRuntime() {
+    }
+
+    public static double negate(Object operand, Token operator) {
+        if (operand instanceof Double number) return -number;
+        throw new RuntimeError(operator, "Operand must be number");
+    }
+
+    // MINUS, ASTERISK and SLASH on operands not known to be numbers, which either are or fail
+    public static double arithmetic(Token operator, Object left, Object right) {
+        return (double) Interpreter.binary(operator, left, right);
+    }
+
+    public static boolean compare(Token operator, Object left, Object right) {
+        return (boolean) Interpreter.binary(operator, left, right);
+    }
+
+    public static double divide(double left, double right, Token operator) {
+        if (right == 0)
+            throw new RuntimeError(operator, "Division by zero");
+
+        return left / right;
+    }
+
+    // Double.equals, which is what isEqual does for two numbers
+    public static boolean equal(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    public static Object assignGlobal(Object value, GlobalEnvironment globals, int index, Token token) {
+        globals.assign(index, token, value);
+        return value;
+    }
+
+    public static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token parenthesis) {
+        return Interpreter.checkCallable(callee, arguments.length, parenthesis).call(interpreter, arguments);
+    }
+
+    public static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token parenthesis) {
+        LoxCallable function = Interpreter.checkCallable(callee, arguments.length, parenthesis);
+        if (function instanceof LoxFunction loxFunction) {
+            interpreter.tailCall(loxFunction, null, arguments);
+            return TAIL_CALL;
+        }
+
+        if (function instanceof BoundMethod boundMethod) {
+            boundMethod.tailCall(interpreter, arguments);
+            return TAIL_CALL;
+        }
+
+        return function.call(interpreter, arguments);
+    }
+
+    // A compiled function calling its own body directly gets its result from here, running the
+    // tail call the body may have left pending
+    public static Object complete(Object value, Interpreter interpreter) {
+        return value == TAIL_CALL ? interpreter.callPending() : value;
+    }
+
+    // The callee of 'object.name(...)': the method bound to the receiver, or the field's value
+    public static Object callee(Object object, PropertyCache cache, Token name) {
+        if (!(object instanceof LoxInstance loxInstance))
+            throw new RuntimeError(name, "Only instances can have properties");
+
+        LoxFunction method = cache.lookUpMethod(loxInstance);
+        return method != null ? method.bind(loxInstance) : cache.get(loxInstance);
+    }
+
+    public static Object get(Object object, PropertyCache cache, Token name) {
+        if (object instanceof LoxInstance loxInstance)
+            return cache.get(loxInstance);
+
+        throw new RuntimeError(name, "Only instances can have properties");
+    }
+
+    // Checked before the value of a set is evaluated
+    public static Object instance(Object object, Token name) {
+        if (object instanceof LoxInstance) return object;
+        throw new RuntimeError(name, "Only instances can have fields");
+    }
+
+    public static Object set(Object instance, Object value, PropertyCache cache) {
+        cache.set((LoxInstance) instance, value);
+        return value;
+    }
+
+    public static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+}
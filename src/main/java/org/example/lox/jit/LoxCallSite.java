@@ -0,0 +1,103 @@
+package org.example.lox.jit;
+
+import org.example.lox.Interpreter;
+import org.example.lox.LoxCallable;
+import org.example.lox.LoxFunction;
+import org.example.lox.Token;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+// A call in compiled code, taking the callee, the Interpreter and the arguments. The call site
+// starts out with only the generic path, which checks the callee like the Interpreter does. Each
+// callee it sees puts a guard in front of the target, leading straight to its compiled code or its
+// call method. Compiled functions are guarded on their declaration, so every closure made from it
+// takes the same path and passes itself to the code; other callees are guarded on their identity.
+// The compiled code holds the site's invoker in a static final field, so HotSpot treats the target
+// as a constant and inlines through it to the callee.
+//
+// A function still warming up in the JIT tier is not linked until it compiles. After
+// POLYMORPHIC_LIMIT callees the site keeps what it has and the rest take the generic path
+public class LoxCallSite extends MutableCallSite {
+    private static final int POLYMORPHIC_LIMIT = 4;
+
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle IS_SAME;
+    private static final MethodHandle IS_SAME_DECLARATION;
+    private static final MethodHandle CALL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FALLBACK = lookup.findVirtual(LoxCallSite.class, "fallback",
+                    MethodType.methodType(Object.class, Object.class, Interpreter.class, Object[].class));
+            IS_SAME = lookup.findStatic(LoxCallSite.class, "isSame",
+                    MethodType.methodType(boolean.class, Object.class, Object.class));
+            IS_SAME_DECLARATION = lookup.findStatic(LoxCallSite.class, "isSameDeclaration",
+                    MethodType.methodType(boolean.class, Object.class, LoxFunction.class));
+            CALL = lookup.findVirtual(LoxCallable.class, "call",
+                    MethodType.methodType(Object.class, Interpreter.class, Object[].class));
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private final int argumentCount;
+    private final Token parenthesis;
+    private int callees = 0;
+
+    LoxCallSite(int argumentCount, Token parenthesis) {
+        super(type(argumentCount));
+        this.argumentCount = argumentCount;
+        this.parenthesis = parenthesis;
+        setTarget(FALLBACK.bindTo(this).asCollector(Object[].class, argumentCount));
+    }
+
+    static MethodType type(int argumentCount) {
+        return MethodType.genericMethodType(argumentCount + 2).changeParameterType(1, Interpreter.class);
+    }
+
+    private Object fallback(Object callee, Interpreter interpreter, Object[] arguments) {
+        LoxCallable function = Interpreter.checkCallable(callee, argumentCount, parenthesis);
+        link(function);
+        return function.call(interpreter, arguments);
+    }
+
+    private void link(LoxCallable function) {
+        if (callees == POLYMORPHIC_LIMIT) return;
+
+        MethodHandle direct;
+        MethodHandle test;
+        if (function instanceof LoxFunction loxFunction && loxFunction.compiledCode() != null) {
+            // The invoker takes the Interpreter and then the function; the site passes the callee first
+            MethodHandle invoker = loxFunction.compiledCode().invoker();
+            invoker = invoker.asType(invoker.type().changeParameterType(1, Object.class));
+            int[] order = new int[argumentCount + 2];
+            order[0] = 1;
+            for (int i = 1; i < order.length; i++)
+                order[i] = i == 1 ? 0 : i;
+
+            direct = MethodHandles.permuteArguments(invoker, type().changeReturnType(invoker.type().returnType()), order);
+            test = MethodHandles.insertArguments(IS_SAME_DECLARATION, 1, loxFunction);
+        } else if (function instanceof LoxFunction loxFunction && loxFunction.isWarmingUp()) {
+            return;
+        } else {
+            direct = CALL.bindTo(function).asCollector(Object[].class, argumentCount);
+            direct = MethodHandles.dropArguments(direct, 0, Object.class);
+            test = MethodHandles.insertArguments(IS_SAME, 1, function);
+        }
+
+        callees++;
+        setTarget(MethodHandles.guardWithTest(test, direct.asType(type()), getTarget()));
+    }
+
+    private static boolean isSame(Object callee, Object function) {
+        return callee == function;
+    }
+
+    private static boolean isSameDeclaration(Object callee, LoxFunction function) {
+        return callee instanceof LoxFunction loxFunction && loxFunction.isSameDeclaration(function);
+    }
+}
@@ -0,0 +1,14 @@
+package org.example.lox.vm;
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class BoundMethod {
+    final Object receiver;
+    final Closure method;
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.lox.vm;
+
+class CallFrame {
+    Closure closure;
+    int ip;
+    int base;
+}
@@ -0,0 +1,43 @@
+package org.example.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+
+    Object[] constants = new Object[16];
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+
+        code[count] = (byte) value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        // Functions are compared by identity, everything else can share a slot
+        if (!(value instanceof CompiledFunction)) {
+            Integer index = constantIndices.get(value);
+            if (index != null) return index;
+        }
+
+        if (constantCount == constants.length)
+            constants = Arrays.copyOf(constants, constantCount * 2);
+
+        constants[constantCount] = value;
+        if (!(value instanceof CompiledFunction))
+            constantIndices.put(value, constantCount);
+
+        return constantCount++;
+    }
+}
@@ -0,0 +1,16 @@
+package org.example.lox.vm;
+
+public class Closure {
+    final CompiledFunction function;
+    final Upvalue[] upvalues;
+
+    public Closure(CompiledFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.lox.vm;
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class CompiledFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<function " + name + ">";
+    }
+}
@@ -0,0 +1,724 @@
+package org.example.lox.vm;
+
+import org.example.lox.FunctionType;
+import org.example.lox.Lox;
+import org.example.lox.Token;
+import org.example.lox.TokenType;
+import org.example.lox.ast.Visitor;
+import org.example.lox.ast.expression.*;
+import org.example.lox.ast.statement.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Compiler implements Visitor<Void> {
+    private static final int UINT16_MAX = 65535;
+
+    private final VmGlobals globals;
+    private FunctionState current;
+    private ClassState currentClass;
+    private int line = 1;
+    private boolean hadError = false;
+
+    Compiler(VmGlobals globals) {
+        this.globals = globals;
+    }
+
+    public CompiledFunction compile(List<Statement> statements) {
+        current = new FunctionState(null, new CompiledFunction(null), FunctionType.NONE);
+
+        for (Statement statement : statements)
+            compile(statement);
+
+        emitReturn();
+
+        if (hadError) return null;
+        return current.function;
+    }
+
+    @Override
+    public Void visitUnaryExpression(UnaryExpression unaryExpression) {
+        compile(unaryExpression.right);
+
+        line = unaryExpression.operator.line;
+        switch (unaryExpression.operator.type) {
+            case MINUS -> emitOp(OpCode.NEGATE);
+            case EXCLAMATION_MARK -> emitOp(OpCode.NOT);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(BinaryExpression binaryExpression) {
+        compile(binaryExpression.left);
+        compile(binaryExpression.right);
+
+        line = binaryExpression.operator.line;
+        switch (binaryExpression.operator.type) {
+            case PLUS -> emitOp(OpCode.ADD);
+            case MINUS -> emitOp(OpCode.SUBTRACT);
+            case ASTERISK -> emitOp(OpCode.MULTIPLY);
+            case SLASH -> emitOp(OpCode.DIVIDE);
+            case LESS -> emitOp(OpCode.LESS);
+            case LESS_EQUAL -> emitOp(OpCode.LESS_EQUAL);
+            case GREATER -> emitOp(OpCode.GREATER);
+            case GREATER_EQUAL -> emitOp(OpCode.GREATER_EQUAL);
+            case EQUAL_EQUAL -> emitOp(OpCode.EQUAL);
+            case EXCLAMATION_MARK_EQUAL -> emitOp(OpCode.NOT_EQUAL);
+            default -> emitOp(OpCode.NIL);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(GroupingExpression groupingExpression) {
+        compile(groupingExpression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(LiteralExpression literalExpression) {
+        if (literalExpression.value == null) {
+            emitOp(OpCode.NIL);
+        } else if (literalExpression.value instanceof Boolean value) {
+            emitOp(value ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emitOp(OpCode.CONSTANT);
+            emitShort(makeConstant(literalExpression.value));
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(VariableExpression variableExpression) {
+        line = variableExpression.token.line;
+        namedVariable(variableExpression.token.lexeme, false);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpression(AssignmentExpression assignmentExpression) {
+        compile(assignmentExpression.expression);
+
+        line = assignmentExpression.token.line;
+        namedVariable(assignmentExpression.token.lexeme, true);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(LogicalExpression logicalExpression) {
+        compile(logicalExpression.left);
+
+        line = logicalExpression.operator.line;
+        OpCode jumpType = logicalExpression.operator.type == TokenType.OR
+                ? OpCode.JUMP_IF_TRUE
+                : OpCode.JUMP_IF_FALSE;
+
+        int endJump = emitJump(jumpType);
+        emitOp(OpCode.POP);
+        compile(logicalExpression.right);
+        patchJump(endJump);
+
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(CallExpression callExpression) {
+        if (callExpression.callee instanceof GetExpression getExpression) {
+            compile(getExpression.object);
+            compileArguments(callExpression.arguments);
+
+            line = callExpression.rightParenthesis.line;
+            emitOp(OpCode.INVOKE);
+            emitShort(cacheConstant(getExpression.name.lexeme));
+            emitByte(callExpression.arguments.size());
+            return null;
+        }
+
+        if (callExpression.callee instanceof SuperExpression superExpression) {
+            line = superExpression.keyword.line;
+            namedVariable("this", false);
+            compileArguments(callExpression.arguments);
+            namedVariable("super", false);
+
+            line = callExpression.rightParenthesis.line;
+            emitOp(OpCode.SUPER_INVOKE);
+            emitShort(identifierConstant(superExpression.method.lexeme));
+            emitByte(callExpression.arguments.size());
+            return null;
+        }
+
+        compile(callExpression.callee);
+        compileArguments(callExpression.arguments);
+
+        line = callExpression.rightParenthesis.line;
+        emitOp(OpCode.CALL);
+        emitByte(callExpression.arguments.size());
+        return null;
+    }
+
+    private void compileArguments(List<Expression> arguments) {
+        for (Expression argument : arguments)
+            compile(argument);
+    }
+
+    @Override
+    public Void visitGetExpression(GetExpression getExpression) {
+        compile(getExpression.object);
+
+        line = getExpression.name.line;
+        emitOp(OpCode.GET_PROPERTY);
+        emitShort(cacheConstant(getExpression.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpression(SetExpression setExpression) {
+        compile(setExpression.object);
+        compile(setExpression.value);
+
+        line = setExpression.name.line;
+        emitOp(OpCode.SET_PROPERTY);
+        emitShort(cacheConstant(setExpression.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpression(ThisExpression thisExpression) {
+        line = thisExpression.keyword.line;
+        namedVariable("this", false);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpression(SuperExpression superExpression) {
+        line = superExpression.keyword.line;
+        namedVariable("this", false);
+        namedVariable("super", false);
+
+        emitOp(OpCode.GET_SUPER);
+        emitShort(identifierConstant(superExpression.method.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpression(LambdaExpression lambdaExpression) {
+        function("lambda", lambdaExpression.parameters, lambdaExpression.body, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpression(InvariantExpression invariantExpression) {
+        compile(invariantExpression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlinedCallExpression(InlinedCallExpression inlinedCallExpression) {
+        compile(inlinedCallExpression.call);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStatement(ExpressionStatement expressionStatement) {
+        compile(expressionStatement.expression);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(PrintStatement printStatement) {
+        compile(printStatement.expression);
+        emitOp(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStatement(VariableStatement variableStatement) {
+        line = variableStatement.token.line;
+        int global = declareVariable(variableStatement.token);
+
+        if (variableStatement.expression != null)
+            compile(variableStatement.expression);
+        else
+            emitOp(OpCode.NIL);
+
+        defineVariable(global);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(BlockStatement blockStatement) {
+        beginScope();
+        for (Statement statement : blockStatement.statements)
+            compile(statement);
+
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(IfStatement ifStatement) {
+        compile(ifStatement.condition);
+
+        int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        compile(ifStatement.thenBranch);
+
+        if (ifStatement.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(ifStatement.elseBranch);
+        patchJump(elseJump);
+
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(WhileStatement whileStatement) {
+        Loop loop = new Loop(current.loop, current.chunk().count, current.scopeDepth);
+        current.loop = loop;
+
+        compile(whileStatement.condition);
+        int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+
+        compile(whileStatement.body);
+
+        for (int continueJump : loop.continueJumps)
+            patchJump(continueJump);
+
+        if (whileStatement.increment != null) {
+            compile(whileStatement.increment);
+            emitOp(OpCode.POP);
+        }
+
+        emitLoop(loop.start);
+        patchJump(exitJump);
+
+        for (int breakJump : loop.breakJumps)
+            patchJump(breakJump);
+
+        current.loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStatement(BreakStatement breakStatement) {
+        if (current.loop == null) {
+            error("'break' is not allowed outside of a loop");
+            return null;
+        }
+
+        discardLocals(current.loop.scopeDepth);
+        current.loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStatement(ContinueStatement continueStatement) {
+        if (current.loop == null) {
+            error("'continue' is not allowed outside of a loop");
+            return null;
+        }
+
+        discardLocals(current.loop.scopeDepth);
+        current.loop.continueJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(FunctionStatement functionStatement) {
+        line = functionStatement.token.line;
+        int global = declareVariable(functionStatement.token);
+        markInitialized();
+
+        function(
+                functionStatement.token.lexeme,
+                functionStatement.parameters,
+                functionStatement.body,
+                FunctionType.FUNCTION
+        );
+
+        defineVariable(global);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(ReturnStatement returnStatement) {
+        line = returnStatement.keyword.line;
+
+        if (returnStatement.value == null) {
+            emitReturn();
+            return null;
+        }
+
+        compile(returnStatement.value);
+        emitOp(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStatement(ClassStatement classStatement) {
+        line = classStatement.name.line;
+        String className = classStatement.name.lexeme;
+
+        int nameConstant = identifierConstant(className);
+        int global = declareVariable(classStatement.name);
+
+        emitOp(OpCode.CLASS);
+        emitShort(nameConstant);
+        defineVariable(global);
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if (classStatement.superclass != null) {
+            visitVariableExpression(classStatement.superclass);
+
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            namedVariable(className, false);
+            line = classStatement.superclass.token.line;
+            emitOp(OpCode.INHERIT);
+            classState.hasSuperclass = true;
+        }
+
+        namedVariable(className, false);
+
+        for (FunctionStatement method : classStatement.methods) {
+            line = method.token.line;
+            FunctionType type = method.token.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+
+            function(method.token.lexeme, method.parameters, method.body, type);
+            emitOp(OpCode.METHOD);
+            emitShort(identifierConstant(method.token.lexeme));
+        }
+
+        for (FunctionStatement method : classStatement.classMethods) {
+            line = method.token.line;
+            function(method.token.lexeme, method.parameters, method.body, FunctionType.CLASS_METHOD);
+            emitOp(OpCode.CLASS_METHOD);
+            emitShort(identifierConstant(method.token.lexeme));
+        }
+
+        emitOp(OpCode.POP);
+
+        if (classState.hasSuperclass)
+            endScope();
+
+        currentClass = classState.enclosing;
+        return null;
+    }
+
+    private void function(String name, List<Token> parameters, List<Statement> body, FunctionType type) {
+        FunctionState state = new FunctionState(current, new CompiledFunction(name), type);
+        current = state;
+
+        beginScope();
+        for (Token parameter : parameters) {
+            state.function.arity++;
+            declareVariable(parameter);
+            markInitialized();
+        }
+
+        for (Statement statement : body)
+            compile(statement);
+
+        emitReturn();
+
+        state.function.upvalueCount = state.upvalues.size();
+        current = state.enclosing;
+
+        emitOp(OpCode.CLOSURE);
+        emitShort(makeConstant(state.function));
+
+        for (UpvalueReference upvalue : state.upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitShort(upvalue.index);
+        }
+    }
+
+    private void compile(Statement statement) {
+        statement.accept(this);
+    }
+
+    private void compile(Expression expression) {
+        expression.accept(this);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emitOp(locals.get(locals.size() - 1).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void discardLocals(int depth) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > depth; i--)
+            emitOp(locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+    }
+
+    private int declareVariable(Token token) {
+        if (current.scopeDepth == 0)
+            return globalIndex(token.lexeme);
+
+        addLocal(token.lexeme);
+        return -1;
+    }
+
+    private void defineVariable(int global) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+
+        emitOp(OpCode.DEFINE_GLOBAL);
+        emitShort(global);
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() > UINT16_MAX) {
+            error("Too many local variables in function");
+            return;
+        }
+
+        current.locals.add(new Local(name, -1));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    private void namedVariable(String name, boolean assign) {
+        OpCode getOp;
+        OpCode setOp;
+
+        int index = resolveLocal(current, name);
+        if (index != -1) {
+            getOp = OpCode.GET_LOCAL;
+            setOp = OpCode.SET_LOCAL;
+        } else if ((index = resolveUpvalue(current, name)) != -1) {
+            getOp = OpCode.GET_UPVALUE;
+            setOp = OpCode.SET_UPVALUE;
+        } else {
+            index = globalIndex(name);
+            getOp = OpCode.GET_GLOBAL;
+            setOp = OpCode.SET_GLOBAL;
+        }
+
+        emitOp(assign ? setOp : getOp);
+        emitShort(index);
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            Local local = state.locals.get(i);
+            if (local.name.equals(name) && local.depth != -1)
+                return i;
+        }
+
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1)
+            return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            UpvalueReference upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal)
+                return i;
+        }
+
+        if (state.upvalues.size() > UINT16_MAX) {
+            error("Too many closure variables in function");
+            return 0;
+        }
+
+        state.upvalues.add(new UpvalueReference(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private int identifierConstant(String name) {
+        return makeConstant(name);
+    }
+
+    // Each property access gets a cache of its own; InlineCaches are never shared between constants
+    private int cacheConstant(String name) {
+        return makeConstant(new InlineCache(name));
+    }
+
+    private int globalIndex(String name) {
+        int index = globals.indexOf(name);
+        if (index > UINT16_MAX) {
+            error("Too many global variables");
+            return 0;
+        }
+
+        return index;
+    }
+
+    private int makeConstant(Object value) {
+        int index = current.chunk().addConstant(value);
+        if (index > UINT16_MAX) {
+            error("Too many constants in one chunk");
+            return 0;
+        }
+
+        return index;
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emitOp(OpCode.GET_LOCAL);
+            emitShort(0);
+        } else {
+            emitOp(OpCode.NIL);
+        }
+
+        emitOp(OpCode.RETURN);
+    }
+
+    private int emitJump(OpCode opCode) {
+        emitOp(opCode);
+        emitShort(0xffff);
+        return current.chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = current.chunk().count - offset - 2;
+        if (jump > UINT16_MAX)
+            error("Too much code to jump over");
+
+        current.chunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        current.chunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitOp(OpCode.LOOP);
+
+        int offset = current.chunk().count - loopStart + 2;
+        if (offset > UINT16_MAX)
+            error("Loop body too large");
+
+        emitShort(offset);
+    }
+
+    private void emitOp(OpCode opCode) {
+        emitByte(opCode.ordinal());
+    }
+
+    private void emitShort(int value) {
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void emitByte(int value) {
+        current.chunk().write(value, line);
+    }
+
+    private void error(String message) {
+        Lox.error(line, message);
+        hadError = true;
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final CompiledFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<UpvalueReference> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop;
+
+        FunctionState(FunctionState enclosing, CompiledFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the receiver for methods and the callee otherwise
+            boolean hasReceiver = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            locals.add(new Local(hasReceiver ? "this" : "", 0));
+        }
+
+        Chunk chunk() {
+            return function.chunk;
+        }
+    }
+
+    private static class Local {
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class UpvalueReference {
+        final int index;
+        final boolean isLocal;
+
+        UpvalueReference(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int start;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int start, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.start = start;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class ClassState {
+        final ClassState enclosing;
+        boolean hasSuperclass = false;
+
+        ClassState(ClassState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.lox.vm;
+
+import lombok.RequiredArgsConstructor;
+import org.example.lox.Shape;
+
+// The cache of one GET_PROPERTY, SET_PROPERTY or INVOKE, kept in its chunk's constants. Receivers of
+// the shape last seen find the field at index, or resolve to method when the index is -1; shapes are
+// rooted per class, so a shape also pins down the method. Set sites that add the field keep the
+// shape the instance moves to in transition
+@RequiredArgsConstructor
+class InlineCache {
+    final String name;
+
+    Shape shape;
+    int index;
+    Closure method;
+    Shape transition;
+
+    // Fills the cache for a read of the property, false when the instance has no such property
+    boolean lookUp(VmInstance instance) {
+        int index = instance.shape.indexOf(name);
+        Closure method = index == -1 && instance.clazz != null ? instance.clazz.methods.get(name) : null;
+        if (index == -1 && method == null)
+            return false;
+
+        this.shape = instance.shape;
+        this.index = index;
+        this.method = method;
+        this.transition = null;
+        return true;
+    }
+
+    // Fills the cache for a write of the property, adding the field when the instance lacks it
+    void lookUpField(VmInstance instance) {
+        Shape shape = instance.shape;
+        int index = shape.indexOf(name);
+        Shape transition = null;
+        if (index == -1) {
+            transition = shape.withField(name);
+            index = transition.size() - 1;
+        }
+
+        this.shape = shape;
+        this.index = index;
+        this.method = null;
+        this.transition = transition;
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.lox.vm;
+
+public abstract class NativeFunction {
+    abstract Object call(Object[] arguments);
+
+    abstract int arity();
+
+    @Override
+    public String toString() {
+        return "<native_function>";
+    }
+}
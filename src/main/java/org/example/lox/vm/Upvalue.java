@@ -0,0 +1,32 @@
+package org.example.lox.vm;
+
+public class Upvalue {
+    int slot;
+    Object closed;
+    Upvalue next;
+
+    public Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+
+    boolean isOpen() {
+        return slot >= 0;
+    }
+
+    void close(Object[] stack) {
+        closed = stack[slot];
+        slot = -1;
+    }
+
+    Object get(Object[] stack) {
+        return slot >= 0 ? stack[slot] : closed;
+    }
+
+    void set(Object[] stack, Object value) {
+        if (slot >= 0)
+            stack[slot] = value;
+        else
+            closed = value;
+    }
+}
@@ -0,0 +1,572 @@
+package org.example.lox.vm;
+
+import org.example.lox.Lox;
+import org.example.lox.Rope;
+import org.example.lox.ast.statement.ExpressionStatement;
+import org.example.lox.ast.statement.PrintStatement;
+import org.example.lox.ast.statement.Statement;
+import org.example.lox.exception.RuntimeError;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class VM {
+    private static final int FRAMES_MAX = 10000;
+
+    private final VmGlobals globals = new VmGlobals();
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    private Object[] stack = new Object[1024];
+    private int stackTop = 0;
+    private Upvalue openUpvalues;
+    private long startTime;
+
+    public VM() {
+        globals.define("clock", new NativeFunction() {
+            @Override
+            Object call(Object[] arguments) {
+                return (double) (System.currentTimeMillis() - startTime);
+            }
+
+            @Override
+            int arity() {
+                return 0;
+            }
+        });
+    }
+
+    public void interpret(List<Statement> statements) {
+        if (statements.size() == 1 && statements.get(0) instanceof ExpressionStatement expressionStatement)
+            statements = List.of(new PrintStatement(expressionStatement.expression));
+
+        CompiledFunction script = new Compiler(globals).compile(statements);
+        if (script == null) return;
+
+        startTime = System.currentTimeMillis();
+        try {
+            Closure closure = new Closure(script);
+            push(closure);
+            call(closure, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            resetStack();
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int base = frame.base;
+        int ip = frame.ip;
+
+        for (; ; ) {
+            switch (OpCode.VALUES[code[ip++]]) {
+                case CONSTANT -> {
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                }
+
+                case NIL -> push(null);
+                case TRUE -> push(true);
+                case FALSE -> push(false);
+                case POP -> stackTop--;
+
+                case GET_LOCAL -> {
+                    push(stack[base + readShort(code, ip)]);
+                    ip += 2;
+                }
+
+                case SET_LOCAL -> {
+                    stack[base + readShort(code, ip)] = stack[stackTop - 1];
+                    ip += 2;
+                }
+
+                case GET_GLOBAL -> {
+                    int index = readShort(code, ip);
+                    ip += 2;
+
+                    Object value = globals.values[index];
+                    if (value == VmGlobals.UNDEFINED)
+                        throw error(frame, ip, "Undefined variable '" + globals.names[index] + "'");
+
+                    push(value);
+                }
+
+                case DEFINE_GLOBAL -> {
+                    globals.values[readShort(code, ip)] = pop();
+                    ip += 2;
+                }
+
+                case SET_GLOBAL -> {
+                    int index = readShort(code, ip);
+                    ip += 2;
+
+                    if (globals.values[index] == VmGlobals.UNDEFINED)
+                        throw error(frame, ip, "Undefined variable '" + globals.names[index] + "'");
+
+                    globals.values[index] = stack[stackTop - 1];
+                }
+
+                case GET_UPVALUE -> {
+                    push(frame.closure.upvalues[readShort(code, ip)].get(stack));
+                    ip += 2;
+                }
+
+                case SET_UPVALUE -> {
+                    frame.closure.upvalues[readShort(code, ip)].set(stack, stack[stackTop - 1]);
+                    ip += 2;
+                }
+
+                case GET_PROPERTY -> {
+                    InlineCache cache = (InlineCache) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    if (!(stack[stackTop - 1] instanceof VmInstance instance))
+                        throw error(frame, ip, "Only instances can have properties");
+
+                    if (instance.shape != cache.shape && !cache.lookUp(instance))
+                        throw error(frame, ip, "Undefined property '" + cache.name + "'");
+
+                    stack[stackTop - 1] = cache.index != -1
+                            ? instance.values[cache.index]
+                            : new BoundMethod(instance, cache.method);
+                }
+
+                case SET_PROPERTY -> {
+                    InlineCache cache = (InlineCache) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    if (!(stack[stackTop - 2] instanceof VmInstance instance))
+                        throw error(frame, ip, "Only instances can have fields");
+
+                    if (instance.shape != cache.shape)
+                        cache.lookUpField(instance);
+
+                    if (cache.transition != null)
+                        instance.moveTo(cache.transition);
+
+                    Object value = pop();
+                    instance.values[cache.index] = value;
+                    stack[stackTop - 1] = value;
+                }
+
+                case GET_SUPER -> {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    VmClass superclass = (VmClass) pop();
+                    Closure method = superclass.methods.get(name);
+                    if (method == null)
+                        throw error(frame, ip, "Undefined property '" + name + "'");
+
+                    stack[stackTop - 1] = new BoundMethod(stack[stackTop - 1], method);
+                }
+
+                case EQUAL -> {
+                    Object right = pop();
+                    stack[stackTop - 1] = isEqual(stack[stackTop - 1], right);
+                }
+
+                case NOT_EQUAL -> {
+                    Object right = pop();
+                    stack[stackTop - 1] = !isEqual(stack[stackTop - 1], right);
+                }
+
+                case GREATER -> {
+                    if (!(stack[stackTop - 2] instanceof Double left && stack[stackTop - 1] instanceof Double right))
+                        throw error(frame, ip, "Operands must be numbers");
+
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = left > right;
+                }
+
+                case GREATER_EQUAL -> {
+                    if (!(stack[stackTop - 2] instanceof Double left && stack[stackTop - 1] instanceof Double right))
+                        throw error(frame, ip, "Operands must be numbers");
+
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = left >= right;
+                }
+
+                case LESS -> {
+                    if (!(stack[stackTop - 2] instanceof Double left && stack[stackTop - 1] instanceof Double right))
+                        throw error(frame, ip, "Operands must be numbers");
+
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = left < right;
+                }
+
+                case LESS_EQUAL -> {
+                    if (!(stack[stackTop - 2] instanceof Double left && stack[stackTop - 1] instanceof Double right))
+                        throw error(frame, ip, "Operands must be numbers");
+
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = left <= right;
+                }
+
+                case ADD -> {
+                    Object right = pop();
+                    Object left = stack[stackTop - 1];
+
+                    if (left instanceof Double a && right instanceof Double b) {
+                        stack[stackTop - 1] = a + b;
+                    } else if (Rope.isString(left) && (Rope.isString(right) || right instanceof Double)
+                            || left instanceof Double && Rope.isString(right)) {
+                        stack[stackTop - 1] = Rope.concatenate(left, right);
+                    } else {
+                        throw error(frame, ip, "Unsupported operand types");
+                    }
+                }
+
+                case SUBTRACT -> {
+                    if (!(stack[stackTop - 2] instanceof Double left && stack[stackTop - 1] instanceof Double right))
+                        throw error(frame, ip, "Operands must be numbers");
+
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = left - right;
+                }
+
+                case MULTIPLY -> {
+                    if (!(stack[stackTop - 2] instanceof Double left && stack[stackTop - 1] instanceof Double right))
+                        throw error(frame, ip, "Operands must be numbers");
+
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = left * right;
+                }
+
+                case DIVIDE -> {
+                    if (!(stack[stackTop - 2] instanceof Double left && stack[stackTop - 1] instanceof Double right))
+                        throw error(frame, ip, "Operands must be numbers");
+
+                    if (right == 0)
+                        throw error(frame, ip, "Division by zero");
+
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = left / right;
+                }
+
+                case NOT -> stack[stackTop - 1] = !isTrue(stack[stackTop - 1]);
+
+                case NEGATE -> {
+                    if (!(stack[stackTop - 1] instanceof Double value))
+                        throw error(frame, ip, "Operand must be number");
+
+                    stack[stackTop - 1] = -value;
+                }
+
+                case PRINT -> System.out.println(stringify(pop()));
+
+                case JUMP -> ip += readShort(code, ip) + 2;
+
+                case JUMP_IF_FALSE -> {
+                    if (isTrue(stack[stackTop - 1]))
+                        ip += 2;
+                    else
+                        ip += readShort(code, ip) + 2;
+                }
+
+                case JUMP_IF_TRUE -> {
+                    if (isTrue(stack[stackTop - 1]))
+                        ip += readShort(code, ip) + 2;
+                    else
+                        ip += 2;
+                }
+
+                case POP_JUMP_IF_FALSE -> {
+                    if (isTrue(pop()))
+                        ip += 2;
+                    else
+                        ip += readShort(code, ip) + 2;
+                }
+
+                case LOOP -> ip -= readShort(code, ip) - 2;
+
+                case CALL -> {
+                    int argumentCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(stack[stackTop - argumentCount - 1], argumentCount);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+
+                case INVOKE -> {
+                    InlineCache cache = (InlineCache) constants[readShort(code, ip)];
+                    int argumentCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    invoke(cache, argumentCount);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+
+                case SUPER_INVOKE -> {
+                    String name = (String) constants[readShort(code, ip)];
+                    int argumentCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+
+                    VmClass superclass = (VmClass) pop();
+                    Closure method = superclass.methods.get(name);
+                    if (method == null)
+                        throw error(frame, ip, "Undefined property '" + name + "'");
+
+                    call(method, argumentCount);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+
+                case CLOSURE -> {
+                    CompiledFunction function = (CompiledFunction) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Closure closure = new Closure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip] == 1;
+                        int index = readShort(code, ip + 1);
+                        ip += 3;
+
+                        closure.upvalues[i] = isLocal
+                                ? captureUpvalue(base + index)
+                                : frame.closure.upvalues[index];
+                    }
+
+                    push(closure);
+                }
+
+                case CLOSE_UPVALUE -> {
+                    closeUpvalues(stackTop - 1);
+                    stackTop--;
+                }
+
+                case RETURN -> {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+
+                    if (frameCount == 0) {
+                        stackTop = 0;
+                        return;
+                    }
+
+                    Arrays.fill(stack, base, stackTop, null);
+                    stackTop = base;
+                    push(result);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+
+                case CLASS -> {
+                    push(new VmClass((String) constants[readShort(code, ip)]));
+                    ip += 2;
+                }
+
+                case INHERIT -> {
+                    if (!(stack[stackTop - 2] instanceof VmClass superclass))
+                        throw error(frame, ip, "Superclass must be a class");
+
+                    VmClass subclass = (VmClass) pop();
+                    subclass.inherit(superclass);
+                }
+
+                case METHOD -> {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Closure method = (Closure) pop();
+                    ((VmClass) stack[stackTop - 1]).addMethod(name, method);
+                }
+
+                case CLASS_METHOD -> {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Closure method = (Closure) pop();
+                    ((VmClass) stack[stackTop - 1]).set(name, method);
+                }
+            }
+        }
+    }
+
+    private void callValue(Object callee, int argumentCount) {
+        if (callee instanceof Closure closure) {
+            call(closure, argumentCount);
+            return;
+        }
+
+        if (callee instanceof BoundMethod boundMethod) {
+            stack[stackTop - argumentCount - 1] = boundMethod.receiver;
+            call(boundMethod.method, argumentCount);
+            return;
+        }
+
+        if (callee instanceof VmClass clazz) {
+            stack[stackTop - argumentCount - 1] = new VmInstance(clazz);
+            if (clazz.initializer != null) {
+                call(clazz.initializer, argumentCount);
+            } else if (argumentCount != 0) {
+                throw error("Expected 0 arguments, but got " + argumentCount);
+            }
+
+            return;
+        }
+
+        if (callee instanceof NativeFunction function) {
+            if (argumentCount != function.arity())
+                throw error("Expected " + function.arity() + " arguments, but got " + argumentCount);
+
+            Object[] arguments = Arrays.copyOfRange(stack, stackTop - argumentCount, stackTop);
+            Object result = function.call(arguments);
+
+            Arrays.fill(stack, stackTop - argumentCount - 1, stackTop, null);
+            stackTop -= argumentCount + 1;
+            push(result);
+            return;
+        }
+
+        throw error("Not a function");
+    }
+
+    private void invoke(InlineCache cache, int argumentCount) {
+        if (!(stack[stackTop - argumentCount - 1] instanceof VmInstance instance))
+            throw error("Only instances can have properties");
+
+        if (instance.shape != cache.shape && !cache.lookUp(instance))
+            throw error("Undefined property '" + cache.name + "'");
+
+        if (cache.index == -1) {
+            call(cache.method, argumentCount);
+            return;
+        }
+
+        Object field = instance.values[cache.index];
+        stack[stackTop - argumentCount - 1] = field;
+        callValue(field, argumentCount);
+    }
+
+    private void call(Closure closure, int argumentCount) {
+        if (argumentCount != closure.function.arity) {
+            throw error(
+                    "Expected " + closure.function.arity + " arguments, but got " + argumentCount
+            );
+        }
+
+        if (frameCount == FRAMES_MAX)
+            throw error("Stack overflow");
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null)
+            frame = frames[frameCount] = new CallFrame();
+
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = stackTop - argumentCount - 1;
+        frameCount++;
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot)
+            return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null)
+            openUpvalues = created;
+        else
+            previous.next = created;
+
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.close(stack);
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void push(Object value) {
+        if (stackTop == stack.length)
+            stack = Arrays.copyOf(stack, stack.length * 2);
+
+        stack[stackTop++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--stackTop];
+        stack[stackTop] = null;
+        return value;
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private RuntimeError error(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        return error(frame, frame.ip, message);
+    }
+
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.chunk.lines[ip - 1], message);
+    }
+
+    private static int readShort(byte[] code, int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    private static boolean isTrue(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return ((Boolean) value);
+        return true;
+    }
+
+    private static boolean isEqual(Object value1, Object value2) {
+        if (value1 == null && value2 == null) return true;
+        if (value1 == null) return false;
+        if (value2 instanceof Rope) return value2.equals(value1);
+
+        return value1.equals(value2);
+    }
+
+    private static String stringify(Object value) {
+        if (value == null) return "nil";
+
+        if (value instanceof Double) {
+            String text = value.toString();
+            if (text.endsWith(".0"))
+                text = text.substring(0, text.length() - 2);
+
+            return text;
+        }
+
+        return value.toString();
+    }
+}
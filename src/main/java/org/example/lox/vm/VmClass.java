@@ -0,0 +1,34 @@
+package org.example.lox.vm;
+
+import org.example.lox.Shape;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class VmClass extends VmInstance {
+    final String name;
+    final Map<String, Closure> methods = new HashMap<>();
+    final Shape instanceShape = new Shape();
+    Closure initializer;
+
+    public VmClass(String name) {
+        super(null);
+        this.name = name;
+    }
+
+    void inherit(VmClass superclass) {
+        methods.putAll(superclass.methods);
+        initializer = superclass.initializer;
+    }
+
+    void addMethod(String name, Closure method) {
+        methods.put(name, method);
+        if (name.equals("init"))
+            initializer = method;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
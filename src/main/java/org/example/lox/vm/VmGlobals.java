@@ -0,0 +1,37 @@
+package org.example.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Every global name gets an index the first time the Compiler sees it, declared or not, so the VM
+// reads and assigns globals in an array. A name used before anything defines it holds UNDEFINED
+// until then. The indices outlive each compile, so lines typed at the prompt share them
+class VmGlobals {
+    static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    String[] names = new String[16];
+    Object[] values = new Object[16];
+
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index != null)
+            return index;
+
+        index = indices.size();
+        if (index == values.length) {
+            names = Arrays.copyOf(names, values.length * 2);
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+
+        names[index] = name;
+        values[index] = UNDEFINED;
+        indices.put(name, index);
+        return index;
+    }
+
+    void define(String name, Object value) {
+        values[indexOf(name)] = value;
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.lox.vm;
+
+import org.example.lox.Shape;
+
+import java.util.Arrays;
+
+// Fields live in an array laid out by the instance's Shape, as for the Interpreter's LoxInstance
+public class VmInstance {
+    // Class objects are instances without a class; their own fields (class methods) hang off this root
+    private static final Shape CLASS_SHAPE = new Shape();
+
+    final VmClass clazz;
+    Shape shape;
+    Object[] values;
+
+    public VmInstance(VmClass clazz) {
+        this.clazz = clazz;
+        this.shape = clazz == null ? CLASS_SHAPE : clazz.instanceShape;
+        this.values = shape.newStorage();
+    }
+
+    void set(String name, Object value) {
+        int index = shape.indexOf(name);
+        if (index == -1) {
+            moveTo(shape.withField(name));
+            index = shape.size() - 1;
+        }
+
+        values[index] = value;
+    }
+
+    void moveTo(Shape shape) {
+        this.shape = shape;
+        if (values.length < shape.size())
+            values = Arrays.copyOf(values, Math.max(shape.size(), values.length * 2));
+    }
+
+    @Override
+    public String toString() {
+        return clazz.name + " class instance";
+    }
+}
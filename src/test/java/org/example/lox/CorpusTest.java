@@ -0,0 +1,149 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs every script in the corpus through each backend, in a JVM of its own since Lox exits with
+// the script's status, and compares what it prints, reports and exits with. Scripts state what
+// they expect in comments:
+//   // expect: <line>                the next line printed to stdout
+//   // expect error: <message>       a parse or resolve error reported for this line, exit 65
+//   // expect runtime error: <msg>   the runtime error that stops the script on this line, exit 70
+//   // expect stderr: <line>         the next line reported on stderr, before any error
+//   // flags: <options>              extra options, for reports only the default backend prints;
+//                                    the script then only runs in the default backend
+//   // skip: <mode>                  not run in this mode, for what a backend does not support
+class CorpusTest {
+    private static final List<List<String>> MODES = List.of(
+            List.of(),
+            List.of("--no-optimize"),
+            List.of("--vm"),
+            List.of("--closure"),
+            List.of("--jit", "--jit-threshold=1"),
+            List.of("compile")
+    );
+
+    private static final Pattern EXPECT = Pattern.compile("// expect: ?(.*)");
+    private static final Pattern EXPECT_ERROR = Pattern.compile("// expect error: (.*)");
+    private static final Pattern EXPECT_RUNTIME_ERROR = Pattern.compile("// expect runtime error: (.*)");
+    private static final Pattern EXPECT_STDERR = Pattern.compile("// expect stderr: (.*)");
+    private static final Pattern FLAGS = Pattern.compile("// flags: (.*)");
+    private static final Pattern SKIP = Pattern.compile("// skip: (.*)");
+
+    private record Expectation(List<String> flags, List<String> skipped, List<String> stdout, List<String> stderr,
+                               int exitCode) {
+    }
+
+    @TestFactory
+    Stream<DynamicTest> corpus() throws IOException, URISyntaxException {
+        Path corpus = Path.of(CorpusTest.class.getResource("/corpus").toURI());
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(corpus)) {
+            scripts = files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        }
+
+        List<DynamicTest> tests = new ArrayList<>();
+        for (Path script : scripts) {
+            Expectation expectation = parse(script);
+            for (List<String> mode : MODES) {
+                if (!expectation.flags.isEmpty() && !mode.isEmpty())
+                    continue;
+
+                if (expectation.skipped.contains(String.join(" ", mode)))
+                    continue;
+
+                String name = script.getFileName() + (mode.isEmpty() ? "" : " " + String.join(" ", mode));
+                tests.add(DynamicTest.dynamicTest(name, () -> run(script, mode, expectation)));
+            }
+        }
+
+        assertTrue(!tests.isEmpty(), "No scripts in " + corpus);
+        return tests.stream();
+    }
+
+    private static Expectation parse(Path script) throws IOException {
+        List<String> flags = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        List<String> stdout = new ArrayList<>();
+        List<String> reports = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        int exitCode = 0;
+
+        List<String> lines = Files.readAllLines(script);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            Matcher matcher;
+            if ((matcher = EXPECT.matcher(line)).find()) {
+                stdout.add(matcher.group(1));
+            } else if ((matcher = EXPECT_ERROR.matcher(line)).find()) {
+                errors.add("[line " + (i + 1) + "] " + matcher.group(1));
+                exitCode = 65;
+            } else if ((matcher = EXPECT_RUNTIME_ERROR.matcher(line)).find()) {
+                errors.add("[line " + (i + 1) + "] " + matcher.group(1));
+                exitCode = 70;
+            } else if ((matcher = EXPECT_STDERR.matcher(line)).find()) {
+                reports.add(matcher.group(1));
+            } else if ((matcher = FLAGS.matcher(line)).find()) {
+                flags.addAll(List.of(matcher.group(1).trim().split("\\s+")));
+            } else if ((matcher = SKIP.matcher(line)).find()) {
+                skipped.add(matcher.group(1).trim());
+            }
+        }
+
+        List<String> stderr = new ArrayList<>(reports);
+        stderr.addAll(errors);
+        return new Expectation(flags, skipped, stdout, stderr, exitCode);
+    }
+
+    private static void run(Path script, List<String> mode, Expectation expectation) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(Path.of(Lox.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        command.add(Lox.class.getName());
+        command.addAll(mode);
+        command.addAll(expectation.flags);
+        command.add(script.toString());
+
+        File stdout = File.createTempFile("lox", ".out");
+        File stderr = File.createTempFile("lox", ".err");
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectOutput(stdout)
+                    .redirectError(stderr)
+                    .start();
+
+            if (!process.waitFor(2, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                throw new AssertionError("Timed out");
+            }
+
+            List<String> printed = Files.readAllLines(stdout.toPath());
+            List<String> reported = Files.readAllLines(stderr.toPath());
+            assertAll(
+                    () -> assertEquals(String.join("\n", expectation.stdout), String.join("\n", printed), "stdout"),
+                    () -> assertEquals(String.join("\n", expectation.stderr), String.join("\n", reported), "stderr"),
+                    () -> assertEquals(expectation.exitCode, process.exitValue(), "exit code")
+            );
+        } finally {
+            stdout.delete();
+            stderr.delete();
+        }
+    }
+}